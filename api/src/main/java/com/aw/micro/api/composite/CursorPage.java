@@ -0,0 +1,33 @@
+package com.aw.micro.api.composite;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * One page of a keyset paginated list. Pass nextCursor as the after parameter to get the next page,
+ * it is null on the last page.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CursorPage<T> {
+  private final List<T> items;
+  private final Integer nextCursor;
+
+  public CursorPage() {
+    this.items = null;
+    this.nextCursor = null;
+  }
+
+  public CursorPage(List<T> items, Integer nextCursor) {
+    this.items = items;
+    this.nextCursor = nextCursor;
+  }
+
+  public List<T> getItems() {
+    return items;
+  }
+
+  public Integer getNextCursor() {
+    return nextCursor;
+  }
+}
@@ -0,0 +1,86 @@
+package com.aw.micro.api.composite;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * One element of a streamed composite product: first the product itself, followed by its recommendations and
+ * reviews in the order they arrive from the core services. A TRUNCATED part tells that the recommendations or reviews
+ * it names failed and the ones streamed before it are not all of them.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ProductAggregatePart {
+
+  public enum Type {
+    PRODUCT,
+    RECOMMENDATION,
+    REVIEW,
+    TRUNCATED
+  }
+
+  private final Type type;
+  private final ProductAggregate product;
+  private final RecommendationSummary recommendation;
+  private final ReviewSummary review;
+  private final String truncated;
+
+  public ProductAggregatePart() {
+    this.type = null;
+    this.product = null;
+    this.recommendation = null;
+    this.review = null;
+    this.truncated = null;
+  }
+
+  private ProductAggregatePart(
+    Type type,
+    ProductAggregate product,
+    RecommendationSummary recommendation,
+    ReviewSummary review,
+    String truncated) {
+
+    this.type = type;
+    this.product = product;
+    this.recommendation = recommendation;
+    this.review = review;
+    this.truncated = truncated;
+  }
+
+  public static ProductAggregatePart product(ProductAggregate product) {
+    return new ProductAggregatePart(Type.PRODUCT, product, null, null, null);
+  }
+
+  public static ProductAggregatePart recommendation(RecommendationSummary recommendation) {
+    return new ProductAggregatePart(Type.RECOMMENDATION, null, recommendation, null, null);
+  }
+
+  public static ProductAggregatePart review(ReviewSummary review) {
+    return new ProductAggregatePart(Type.REVIEW, null, null, review, null);
+  }
+
+  /**
+   * @param truncated "recommendations" or "reviews"
+   */
+  public static ProductAggregatePart truncated(String truncated) {
+    return new ProductAggregatePart(Type.TRUNCATED, null, null, null, truncated);
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public ProductAggregate getProduct() {
+    return product;
+  }
+
+  public RecommendationSummary getRecommendation() {
+    return recommendation;
+  }
+
+  public ReviewSummary getReview() {
+    return review;
+  }
+
+  public String getTruncated() {
+    return truncated;
+  }
+}
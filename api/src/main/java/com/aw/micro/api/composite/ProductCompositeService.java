@@ -6,8 +6,12 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+import java.util.Map;
+
 
 @Tag(name = "ProductComposite", description =
         "REST API for composite product information.")
@@ -27,9 +31,11 @@ public interface ProductCompositeService {
     Mono<Void> createProduct(@RequestBody ProductAggregate body);
 
     /**
-     * Sample usage: "curl $HOST:$PORT/product-composite/1".
+     * Sample usage: "curl $HOST:$PORT/product-composite/1", or "curl $HOST:$PORT/product-composite/1?include=reviews"
+     * for the product and the reviews without their content.
      *
      * @param productId Id of the product
+     * @param include Parts to include: product, recommendations, reviews and content, all of them if not specified
      * @return the composite product info, if found, else null
      */
     @Operation(
@@ -44,7 +50,155 @@ public interface ProductCompositeService {
     @GetMapping(
             value = "/product-composite/{productId}",
             produces = "application/json")
-    Mono<ProductAggregate> getProduct(@PathVariable int productId);
+    Mono<ProductAggregate> getProduct(@PathVariable int productId,
+                                      @RequestParam(value = "include", required = false) List<String> include);
+
+    /**
+     * Sample usage: "curl -H 'Accept: application/x-ndjson' $HOST:$PORT/product-composite/1/stream".
+     *
+     * @param productId Id of the product
+     * @return the product, followed by its recommendations and reviews as they arrive
+     */
+    @Operation(
+            summary = "${api.product-composite.stream-composite-product.description}",
+            description = "${api.product-composite.stream-composite-product.notes}")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "${api.responseCodes.ok.description}"),
+            @ApiResponse(responseCode = "400", description = "${api.responseCodes.badRequest.description}"),
+            @ApiResponse(responseCode = "404", description = "${api.responseCodes.notFound.description}"),
+            @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}")
+    })
+    @GetMapping(
+            value = "/product-composite/{productId}/stream",
+            produces = {"application/x-ndjson", "text/event-stream"})
+    Flux<ProductAggregatePart> getProductStream(@PathVariable int productId);
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/product-composite/1/recommendations?limit=10", then
+     * "curl $HOST:$PORT/product-composite/1/recommendations?after=10&limit=10" with the returned nextCursor.
+     *
+     * @param productId Id of the product
+     * @param after Cursor returned by the previous page, 0 for the first page
+     * @param limit Max number of recommendations in the page
+     * @return the page of recommendations and the cursor of the next page
+     */
+    @Operation(
+            summary = "${api.product-composite.get-composite-recommendations-page.description}",
+            description = "${api.product-composite.get-composite-recommendations-page.notes}")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "${api.responseCodes.ok.description}"),
+            @ApiResponse(responseCode = "400", description = "${api.responseCodes.badRequest.description}"),
+            @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}")
+    })
+    @GetMapping(
+            value = "/product-composite/{productId}/recommendations",
+            produces = "application/json")
+    Mono<CursorPage<RecommendationSummary>> getRecommendationsPage(@PathVariable int productId,
+                                                                   @RequestParam(value = "after", required = false, defaultValue = "0") int after,
+                                                                   @RequestParam(value = "limit", required = false, defaultValue = "20") int limit);
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/product-composite/1/reviews?limit=10", then
+     * "curl $HOST:$PORT/product-composite/1/reviews?after=10&limit=10" with the returned nextCursor.
+     *
+     * @param productId Id of the product
+     * @param after Cursor returned by the previous page, 0 for the first page
+     * @param limit Max number of reviews in the page
+     * @return the page of reviews and the cursor of the next page
+     */
+    @Operation(
+            summary = "${api.product-composite.get-composite-reviews-page.description}",
+            description = "${api.product-composite.get-composite-reviews-page.notes}")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "${api.responseCodes.ok.description}"),
+            @ApiResponse(responseCode = "400", description = "${api.responseCodes.badRequest.description}"),
+            @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}")
+    })
+    @GetMapping(
+            value = "/product-composite/{productId}/reviews",
+            produces = "application/json")
+    Mono<CursorPage<ReviewSummary>> getReviewsPage(@PathVariable int productId,
+                                                   @RequestParam(value = "after", required = false, defaultValue = "0") int after,
+                                                   @RequestParam(value = "limit", required = false, defaultValue = "20") int limit);
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/product-composite?ids=1,2,3".
+     *
+     * @param ids Ids of the products
+     * @return the composite product info of the products that were found, in the requested order
+     */
+    @Operation(
+            summary = "${api.product-composite.get-composite-products.description}",
+            description = "${api.product-composite.get-composite-products.notes}")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "${api.responseCodes.ok.description}"),
+            @ApiResponse(responseCode = "400", description = "${api.responseCodes.badRequest.description}"),
+            @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}")
+    })
+    @GetMapping(
+            value = "/product-composite",
+            produces = "application/json")
+    Flux<ProductAggregate> getProducts(@RequestParam(value = "ids", required = true) List<Integer> ids);
+
+    /**
+     * Sample usage: "curl -X PATCH -H 'Content-Type: application/json' -d '{"weight": 5}' $HOST:$PORT/product-composite/1".
+     *
+     * @param productId Id of the product
+     * @param patch New values of the fields to change, name and weight
+     */
+    @Operation(
+            summary = "${api.product-composite.patch-composite-product.description}",
+            description = "${api.product-composite.patch-composite-product.notes}")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "400", description = "${api.responseCodes.badRequest.description}"),
+            @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}")
+    })
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    @PatchMapping(
+            value = "/product-composite/{productId}",
+            consumes = {"application/json", "application/merge-patch+json"})
+    Mono<Void> patchProduct(@PathVariable int productId, @RequestBody Map<String, Object> patch);
+
+    /**
+     * Sample usage: "curl -X PATCH -H 'Content-Type: application/json' -d '{"rate": 4}' $HOST:$PORT/product-composite/1/recommendations/2".
+     *
+     * @param productId Id of the product
+     * @param recommendationId Id of the recommendation
+     * @param patch New values of the fields to change, author, rate and content
+     */
+    @Operation(
+            summary = "${api.product-composite.patch-composite-recommendation.description}",
+            description = "${api.product-composite.patch-composite-recommendation.notes}")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "400", description = "${api.responseCodes.badRequest.description}"),
+            @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}")
+    })
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    @PatchMapping(
+            value = "/product-composite/{productId}/recommendations/{recommendationId}",
+            consumes = {"application/json", "application/merge-patch+json"})
+    Mono<Void> patchRecommendation(@PathVariable int productId, @PathVariable int recommendationId,
+                                   @RequestBody Map<String, Object> patch);
+
+    /**
+     * Sample usage: "curl -X PATCH -H 'Content-Type: application/json' -d '{"subject": "Fixed"}' $HOST:$PORT/product-composite/1/reviews/2".
+     *
+     * @param productId Id of the product
+     * @param reviewId Id of the review
+     * @param patch New values of the fields to change, author, subject and content
+     */
+    @Operation(
+            summary = "${api.product-composite.patch-composite-review.description}",
+            description = "${api.product-composite.patch-composite-review.notes}")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "400", description = "${api.responseCodes.badRequest.description}"),
+            @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}")
+    })
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    @PatchMapping(
+            value = "/product-composite/{productId}/reviews/{reviewId}",
+            consumes = {"application/json", "application/merge-patch+json"})
+    Mono<Void> patchReview(@PathVariable int productId, @PathVariable int reviewId, @RequestBody Map<String, Object> patch);
 
     /**
      * Sample usage: "curl -X DELETE $HOST:$PORT/product-composite/1".
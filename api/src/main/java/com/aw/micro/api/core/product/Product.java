@@ -1,7 +1,14 @@
 package com.aw.micro.api.core.product;
 
+import java.util.Set;
+
 public class Product {
 
+    /**
+     * Fields that can be changed by an UPDATE event, the ids can't.
+     */
+    public static final Set<String> PATCHABLE_FIELDS = Set.of("name", "weight");
+
     private int productId;
     private String name;
     private int weight;
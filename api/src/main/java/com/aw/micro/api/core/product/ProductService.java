@@ -1,16 +1,29 @@
 package com.aw.micro.api.core.product;
 
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
 public interface ProductService {
     
     @GetMapping(
             value="/product/{productId}",
-            produces ="application/json"
+            produces = {"application/json", "application/x-jackson-smile"}
     )
     Mono<Product> getProduct(@PathVariable int productId);
 
+    /**
+     * Sample usage: "curl $HOST:$PORT/product?productIds=1,2,3".
+     * Unknown product ids are skipped, i.e. no 404 is returned for them.
+     */
+    @GetMapping(
+            value="/product",
+            produces = {"application/json", "application/x-jackson-smile"}
+    )
+    Flux<Product> getProducts(@RequestParam(value = "productIds", required = true) List<Integer> productIds);
+
     @PostMapping(
             value = "/product",
             consumes = "application/json",
@@ -1,7 +1,14 @@
 package com.aw.micro.api.core.recommendation;
 
+import java.util.Set;
+
 public class Recommendation {
 
+    /**
+     * Fields that can be changed by an UPDATE event, the ids can't.
+     */
+    public static final Set<String> PATCHABLE_FIELDS = Set.of("author", "rate", "content");
+
     private int productId;
     private int recommendationId;
     private String author;
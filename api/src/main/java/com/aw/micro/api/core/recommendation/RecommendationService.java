@@ -4,13 +4,47 @@ import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
 public interface RecommendationService {
 
+    default Flux<Recommendation> getRecommendations(int productId) {
+        return getRecommendations(productId, true);
+    }
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/recommendation?productId=1&includeContent=false".
+     * Without content, the content field is not read from the database at all.
+     */
     @GetMapping(
             value="/recommendation",
-            produces = "application/json"
+            produces = {"application/json", "application/x-ndjson", "application/x-jackson-smile"}
+    )
+    Flux<Recommendation> getRecommendations(@RequestParam(value = "productId",required = true)int productId,
+                                            @RequestParam(value = "includeContent", required = false, defaultValue = "true") boolean includeContent);
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/recommendation?productId=1&after=20&limit=10".
+     * Returns at most limit recommendations with a recommendationId greater than after, ordered by recommendationId.
+     */
+    @GetMapping(
+            value="/recommendation",
+            params = "limit",
+            produces = {"application/json", "application/x-jackson-smile"}
+    )
+    Flux<Recommendation> getRecommendationsPage(@RequestParam(value = "productId", required = true) int productId,
+                                                @RequestParam(value = "after", required = false, defaultValue = "0") int after,
+                                                @RequestParam(value = "limit", required = true) int limit);
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/recommendation?productIds=1,2,3".
+     */
+    @GetMapping(
+            value="/recommendation",
+            params = "productIds",
+            produces = {"application/json", "application/x-jackson-smile"}
     )
-    Flux<Recommendation> getRecommendations(@RequestParam(value = "productId",required = true)int productId);
+    Flux<Recommendation> getRecommendations(@RequestParam(value = "productIds", required = true) List<Integer> productIds);
 
 
     @PostMapping(
@@ -1,6 +1,14 @@
 package com.aw.micro.api.core.review;
 
+import java.util.Set;
+
 public class Review {
+
+    /**
+     * Fields that can be changed by an UPDATE event, the ids can't.
+     */
+    public static final Set<String> PATCHABLE_FIELDS = Set.of("author", "subject", "content");
+
     private  int productId;
     private  int reviewId;
     private  String author;
@@ -4,13 +4,47 @@ import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
 public interface ReviewService {
 
+    default Flux<Review> getReviews(int productId) {
+        return getReviews(productId, true);
+    }
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/review?productId=1&includeContent=false".
+     * Without content, the content field is not read from the database at all.
+     */
+    @GetMapping(
+            value="/review",
+            produces = {"application/json", "application/x-ndjson", "application/x-jackson-smile"}
+    )
+    Flux<Review> getReviews(@RequestParam(value = "productId",required = true)int productId,
+                            @RequestParam(value = "includeContent", required = false, defaultValue = "true") boolean includeContent);
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/review?productId=1&after=20&limit=10".
+     * Returns at most limit reviews with a reviewId greater than after, ordered by reviewId.
+     */
+    @GetMapping(
+            value="/review",
+            params = "limit",
+            produces = {"application/json", "application/x-jackson-smile"}
+    )
+    Flux<Review> getReviewsPage(@RequestParam(value = "productId", required = true) int productId,
+                                @RequestParam(value = "after", required = false, defaultValue = "0") int after,
+                                @RequestParam(value = "limit", required = true) int limit);
+
+    /**
+     * Sample usage: "curl $HOST:$PORT/review?productIds=1,2,3".
+     */
     @GetMapping(
             value="/review",
-            produces = "application/json"
+            params = "productIds",
+            produces = {"application/json", "application/x-jackson-smile"}
     )
-    Flux<Review> getReviews(@RequestParam(value = "productId",required = true)int productId);
+    Flux<Review> getReviews(@RequestParam(value = "productIds", required = true) List<Integer> productIds);
 
     @PostMapping(
             value = "/review",
@@ -0,0 +1,33 @@
+package com.aw.micro.api.event;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Reads a timestamp as epoch millis. Accepts ISO-8601 date-times as well, the format events were written in before.
+ */
+public class EpochMillisDeserializer extends StdDeserializer<Long> {
+
+    public EpochMillisDeserializer() {
+        super(Long.class);
+    }
+
+    @Override
+    public Long deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getLongValue();
+        }
+        String text = parser.getValueAsString();
+        try {
+            return ZonedDateTime.parse(text).toInstant().toEpochMilli();
+        } catch (DateTimeParseException | NullPointerException ex) {
+            return (Long) context.handleWeirdStringValue(Long.class, text, "not epoch millis or an ISO-8601 date-time");
+        }
+    }
+}
@@ -1,36 +1,79 @@
 package com.aw.micro.api.event;
 
-import com.fasterxml.jackson.databind.annotation.JsonSerialize;
-import com.fasterxml.jackson.datatype.jsr310.ser.ZonedDateTimeSerializer;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 
-import java.time.ZonedDateTime;
-
-import static java.time.ZonedDateTime.now;
+import java.util.List;
 
 public class Event <K,T>{
 
     public enum Type{
         CREATE,
+        /**
+         * Creates all items of the key at once, the items are carried by {@link #getItems()} instead of the data.
+         */
+        CREATE_ALL,
+        /**
+         * Updates the fields of the data listed in {@link #getPatchedFields()}, the other fields of the data only
+         * identify what is updated.
+         */
+        UPDATE,
         DELETE
     }
 
     private final Type eventType;
     private final K key;
     private final T data;
-    private final ZonedDateTime eventCreatedAt;
+    private final List<T> items;
+    private final List<String> patchedFields;
+    // Epoch millis, cheaper to create and to (de)serialize than a ZonedDateTime
+    @JsonDeserialize(using = EpochMillisDeserializer.class)
+    private final long eventCreatedAt;
+    private final long eventId;
 
     public Event(){
         this.eventType=null;
         this.key=null;
         this.data=null;
-        this.eventCreatedAt=null;
+        this.items=null;
+        this.patchedFields=null;
+        this.eventCreatedAt=0;
+        this.eventId=0;
     }
 
     public Event(Type eventType, K key, T data) {
+        this(eventType, key, data, null, null, System.currentTimeMillis(), 0);
+    }
+
+    private Event(Type eventType, K key, T data, List<T> items, List<String> patchedFields, long eventCreatedAt, long eventId) {
         this.eventType = eventType;
         this.key = key;
         this.data = data;
-        this.eventCreatedAt = now();
+        this.items = items;
+        this.patchedFields = patchedFields;
+        this.eventCreatedAt = eventCreatedAt;
+        this.eventId = eventId;
+    }
+
+    /**
+     * Returns a copy of the event with the id, used by consumers to recognize redeliveries of the same event.
+     */
+    public Event<K,T> withEventId(long eventId) {
+        return new Event<>(eventType, key, data, items, patchedFields, eventCreatedAt, eventId);
+    }
+
+    /**
+     * Returns a CREATE_ALL event that creates all the items of the key with one message.
+     */
+    public static <K,T> Event<K,T> createAll(K key, List<T> items) {
+        return new Event<>(Type.CREATE_ALL, key, null, items, null, System.currentTimeMillis(), 0);
+    }
+
+    /**
+     * Returns an UPDATE event that sets the patched fields of the data, instead of deleting and recreating it.
+     */
+    public static <K,T> Event<K,T> update(K key, T data, List<String> patchedFields) {
+        return new Event<>(Type.UPDATE, key, data, null, patchedFields, System.currentTimeMillis(), 0);
     }
 
     public Type getEventType(){
@@ -45,8 +88,33 @@ public class Event <K,T>{
         return data;
     }
 
-    @JsonSerialize(using = ZonedDateTimeSerializer.class)
-    public ZonedDateTime getEventCreatedAt(){
+    /**
+     * Items of a CREATE_ALL event, null for the other event types.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public List<T> getItems(){
+        return items;
+    }
+
+    /**
+     * Fields set by an UPDATE event, null for the other event types.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public List<String> getPatchedFields(){
+        return patchedFields;
+    }
+
+    /**
+     * Unique id of the event, 0 if it was not set by the publisher.
+     */
+    public long getEventId() {
+        return eventId;
+    }
+
+    /**
+     * Creation time of the event in epoch millis, 0 if unknown.
+     */
+    public long getEventCreatedAt(){
         return eventCreatedAt;
     }
 
@@ -0,0 +1,66 @@
+package com.aw.micro.product_composite_service.config;
+
+import com.aw.micro.product_composite_service.services.DownstreamPolicy;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+public class DownstreamConfig {
+
+    private final MeterRegistry registry;
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+    private final Duration backoff;
+    private final Duration maxBackoff;
+    private final double budgetRatio;
+    private final int budgetMaxTokens;
+    private final Duration minHedgeDelay;
+
+    @Autowired
+    public DownstreamConfig(MeterRegistry registry,
+                            CircuitBreakerRegistry circuitBreakerRegistry,
+                            @Value("${app.retry.backoff:50ms}") Duration backoff,
+                            @Value("${app.retry.maxBackoff:500ms}") Duration maxBackoff,
+                            @Value("${app.retry.budget.ratio:0.1}") double budgetRatio,
+                            @Value("${app.retry.budget.maxTokens:10}") int budgetMaxTokens,
+                            @Value("${app.hedging.minDelay:20ms}") Duration minHedgeDelay) {
+        this.registry = registry;
+        this.circuitBreakerRegistry = circuitBreakerRegistry;
+        this.backoff = backoff;
+        this.maxBackoff = maxBackoff;
+        this.budgetRatio = budgetRatio;
+        this.budgetMaxTokens = budgetMaxTokens;
+        this.minHedgeDelay = minHedgeDelay;
+    }
+
+    @Bean
+    public DownstreamPolicy productPolicy(@Value("${app.product-service.timeout:2s}") Duration timeout,
+                                          @Value("${app.product-service.maxRetries:2}") int maxRetries,
+                                          @Value("${app.product-service.hedging:false}") boolean hedging) {
+        return policy("product", timeout, maxRetries, hedging);
+    }
+
+    @Bean
+    public DownstreamPolicy recommendationPolicy(@Value("${app.recommendation-service.timeout:2s}") Duration timeout,
+                                                 @Value("${app.recommendation-service.maxRetries:2}") int maxRetries,
+                                                 @Value("${app.recommendation-service.hedging:false}") boolean hedging) {
+        return policy("recommendation", timeout, maxRetries, hedging);
+    }
+
+    @Bean
+    public DownstreamPolicy reviewPolicy(@Value("${app.review-service.timeout:2s}") Duration timeout,
+                                         @Value("${app.review-service.maxRetries:2}") int maxRetries,
+                                         @Value("${app.review-service.hedging:false}") boolean hedging) {
+        return policy("review", timeout, maxRetries, hedging);
+    }
+
+    private DownstreamPolicy policy(String service, Duration timeout, int maxRetries, boolean hedging) {
+        return new DownstreamPolicy(service, timeout, maxRetries, backoff, maxBackoff,
+                budgetRatio, budgetMaxTokens, hedging, minHedgeDelay, circuitBreakerRegistry.circuitBreaker(service), registry);
+    }
+}
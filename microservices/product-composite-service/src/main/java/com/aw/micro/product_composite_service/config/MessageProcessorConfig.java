@@ -0,0 +1,53 @@
+package com.aw.micro.product_composite_service.config;
+
+import com.aw.micro.api.event.Event;
+import com.aw.micro.product_composite_service.services.ProductAggregateCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.function.Consumer;
+
+/**
+ * Listens to the products, recommendations and reviews destinations the composite publishes to,
+ * and invalidates the cached aggregate of every productId that is created or deleted.
+ * The bindings have no group, so every composite instance gets its own copy of each event.
+ */
+@Configuration
+public class MessageProcessorConfig {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MessageProcessorConfig.class);
+
+    private final ProductAggregateCache cache;
+
+    @Autowired
+    public MessageProcessorConfig(ProductAggregateCache cache) {
+        this.cache = cache;
+    }
+
+    @Bean
+    public Consumer<Event<Integer, Object>> productInvalidator() {
+        return this::invalidate;
+    }
+
+    @Bean
+    public Consumer<Event<Integer, Object>> recommendationInvalidator() {
+        return this::invalidate;
+    }
+
+    @Bean
+    public Consumer<Event<Integer, Object>> reviewInvalidator() {
+        return this::invalidate;
+    }
+
+    private void invalidate(Event<Integer, Object> event) {
+        if (event.getKey() == null) {
+            LOG.warn("Skip cache invalidation for a {} event without key", event.getEventType());
+            return;
+        }
+        LOG.debug("Invalidate cached aggregate on {} event for productId: {}", event.getEventType(), event.getKey());
+        cache.invalidate(event.getKey());
+    }
+}
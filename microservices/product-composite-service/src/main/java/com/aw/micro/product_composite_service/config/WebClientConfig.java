@@ -0,0 +1,98 @@
+package com.aw.micro.product_composite_service.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+/**
+ * One WebClient per core service, each with its own Reactor Netty connection pool, so a burst towards one service
+ * can't exhaust the connections of the others.
+ * <p>
+ * Pool metrics (reactor.netty.connection.provider.*: active, idle and pending connections, and the time spent
+ * waiting for a connection) are published through Micrometer, tagged with the pool name.
+ * With http2 enabled the client talks h2c (HTTP/2 without TLS) and multiplexes the requests over few connections.
+ * With preferSmile enabled the clients ask for Smile (binary JSON) bodies, which are smaller and cheaper to encode and
+ * decode than JSON, and fall back to JSON for endpoints that don't offer Smile. Calls that set their own Accept header,
+ * like the ndjson streams, are not affected.
+ */
+@Configuration
+public class WebClientConfig {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WebClientConfig.class);
+
+    private final Duration pendingAcquireTimeout;
+    private final Duration maxIdleTime;
+    private final Duration evictionInterval;
+    private final boolean preferSmile;
+
+    @Autowired
+    public WebClientConfig(@Value("${app.connection-pool.pendingAcquireTimeout:2s}") Duration pendingAcquireTimeout,
+                           @Value("${app.connection-pool.maxIdleTime:30s}") Duration maxIdleTime,
+                           @Value("${app.connection-pool.evictionInterval:10s}") Duration evictionInterval,
+                           @Value("${app.content-negotiation.preferSmile:true}") boolean preferSmile) {
+        this.pendingAcquireTimeout = pendingAcquireTimeout;
+        this.maxIdleTime = maxIdleTime;
+        this.evictionInterval = evictionInterval;
+        this.preferSmile = preferSmile;
+    }
+
+    @Bean
+    public WebClient productWebClient(WebClient.Builder builder,
+                                      @Value("${app.product-service.maxConnections:50}") int maxConnections,
+                                      @Value("${app.product-service.pendingAcquireMaxCount:500}") int pendingAcquireMaxCount,
+                                      @Value("${app.product-service.http2:false}") boolean http2) {
+        return webClient("product", builder, maxConnections, pendingAcquireMaxCount, http2);
+    }
+
+    @Bean
+    public WebClient recommendationWebClient(WebClient.Builder builder,
+                                             @Value("${app.recommendation-service.maxConnections:50}") int maxConnections,
+                                             @Value("${app.recommendation-service.pendingAcquireMaxCount:500}") int pendingAcquireMaxCount,
+                                             @Value("${app.recommendation-service.http2:false}") boolean http2) {
+        return webClient("recommendation", builder, maxConnections, pendingAcquireMaxCount, http2);
+    }
+
+    @Bean
+    public WebClient reviewWebClient(WebClient.Builder builder,
+                                     @Value("${app.review-service.maxConnections:50}") int maxConnections,
+                                     @Value("${app.review-service.pendingAcquireMaxCount:500}") int pendingAcquireMaxCount,
+                                     @Value("${app.review-service.http2:false}") boolean http2) {
+        return webClient("review", builder, maxConnections, pendingAcquireMaxCount, http2);
+    }
+
+    private WebClient webClient(String service, WebClient.Builder builder, int maxConnections, int pendingAcquireMaxCount, boolean http2) {
+        LOG.info("Creates a connection pool for the {} service with maxConnections = {}, pendingAcquireMaxCount = {}, http2 = {}",
+                service, maxConnections, pendingAcquireMaxCount, http2);
+
+        ConnectionProvider connectionProvider = ConnectionProvider.builder(service + "-pool")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(pendingAcquireTimeout)
+                .maxIdleTime(maxIdleTime)
+                .evictInBackground(evictionInterval)
+                .metrics(true)
+                .build();
+
+        HttpClient httpClient = HttpClient.create(connectionProvider);
+        if (http2) {
+            httpClient = httpClient.protocol(HttpProtocol.H2C);
+        }
+
+        builder.clientConnector(new ReactorClientHttpConnector(httpClient));
+        if (preferSmile) {
+            builder.defaultHeader(HttpHeaders.ACCEPT, "application/x-jackson-smile, application/json;q=0.9");
+        }
+        return builder.build();
+    }
+}
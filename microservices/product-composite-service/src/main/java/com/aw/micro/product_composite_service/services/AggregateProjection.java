@@ -0,0 +1,103 @@
+package com.aw.micro.product_composite_service.services;
+
+import com.aw.micro.api.composite.ProductAggregate;
+import com.aw.micro.api.composite.RecommendationSummary;
+import com.aw.micro.api.composite.ReviewSummary;
+import com.aw.micro.api.composite.ServiceAddresses;
+import com.aw.micro.api.exceptions.InvalidInputException;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The parts of a composite product a caller asked for with the include parameter.
+ * The product information itself is always included, recommendations, reviews and their content only on request.
+ * Without include, everything is included.
+ */
+class AggregateProjection {
+
+    static final AggregateProjection FULL = new AggregateProjection(true, true, true);
+
+    private final boolean recommendations;
+    private final boolean reviews;
+    private final boolean content;
+
+    private AggregateProjection(boolean recommendations, boolean reviews, boolean content) {
+        this.recommendations = recommendations;
+        this.reviews = reviews;
+        this.content = content;
+    }
+
+    static AggregateProjection of(List<String> include) {
+        if (include == null || include.isEmpty()) {
+            return FULL;
+        }
+
+        boolean recommendations = false;
+        boolean reviews = false;
+        boolean content = false;
+        for (String part : include) {
+            switch (part.trim()) {
+                case "product":
+                    break;
+                case "recommendations":
+                    recommendations = true;
+                    break;
+                case "reviews":
+                    reviews = true;
+                    break;
+                case "content":
+                    content = true;
+                    break;
+                default:
+                    throw new InvalidInputException("Invalid include: " + part + ", expected product, recommendations, reviews or content");
+            }
+        }
+        return new AggregateProjection(recommendations, reviews, content);
+    }
+
+    boolean isFull() {
+        return recommendations && reviews && content;
+    }
+
+    boolean includesRecommendations() {
+        return recommendations;
+    }
+
+    boolean includesReviews() {
+        return reviews;
+    }
+
+    boolean includesContent() {
+        return content;
+    }
+
+    /**
+     * Strips everything that was not asked for from an aggregate, parts that are not included are set to null.
+     */
+    ProductAggregate apply(ProductAggregate aggregate) {
+        if (isFull()) {
+            return aggregate;
+        }
+
+        List<RecommendationSummary> recommendationSummaries = (!recommendations || aggregate.getRecommendations() == null) ? null :
+                aggregate.getRecommendations().stream()
+                        .map(r -> content ? r : new RecommendationSummary(r.getRecommendationId(), r.getAuthor(), r.getRate(), null))
+                        .collect(Collectors.toList());
+
+        List<ReviewSummary> reviewSummaries = (!reviews || aggregate.getReviews() == null) ? null :
+                aggregate.getReviews().stream()
+                        .map(r -> content ? r : new ReviewSummary(r.getReviewId(), r.getAuthor(), r.getSubject(), null))
+                        .collect(Collectors.toList());
+
+        ServiceAddresses addresses = aggregate.getServiceAddresses();
+        ServiceAddresses serviceAddresses = (addresses == null) ? null : new ServiceAddresses(
+                addresses.getCmp(),
+                addresses.getPro(),
+                reviews ? addresses.getRev() : null,
+                recommendations ? addresses.getRec() : null);
+
+        return new ProductAggregate(aggregate.getProductId(), aggregate.getName(), aggregate.getWeight(),
+                recommendationSummaries, reviewSummaries, serviceAddresses);
+    }
+}
@@ -0,0 +1,205 @@
+package com.aw.micro.product_composite_service.services;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Timeout, circuit breaker, retry and hedging policy for the calls to one core service.
+ * <p>
+ * Every attempt is bounded by the timeout and guarded by the circuit breaker of the service, an open breaker fails the
+ * attempt at once with a {@link io.github.resilience4j.circuitbreaker.CallNotPermittedException}. Failed attempts caused by timeouts, connection errors or 5xx responses are
+ * retried with jittered exponential backoff, but only while the retry budget allows it: each call deposits a fraction
+ * of a token and each retry withdraws a whole one, so retries can never add more than that fraction to the load on a
+ * failing service. With hedging enabled, a second attempt is fired if the first one has not answered within the
+ * observed p95 latency, and whichever answers first is used.
+ */
+public class DownstreamPolicy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DownstreamPolicy.class);
+
+    private static final long TOKEN = 1000;
+
+    private final String service;
+    private final Duration timeout;
+    private final int maxRetries;
+    private final Duration backoff;
+    private final Duration maxBackoff;
+    private final boolean hedging;
+    private final Duration minHedgeDelay;
+    private final CircuitBreaker circuitBreaker;
+
+    private final long budgetDeposit;
+    private final long budgetMax;
+    private final AtomicLong budgetBalance;
+
+    private final Timer successes;
+    private final Timer failures;
+    private final Timer timeouts;
+    private final Counter retries;
+    private final Counter retriesRejected;
+    private final Counter hedges;
+
+    public DownstreamPolicy(String service, Duration timeout, int maxRetries, Duration backoff, Duration maxBackoff,
+                            double budgetRatio, int budgetMaxTokens, boolean hedging, Duration minHedgeDelay,
+                            CircuitBreaker circuitBreaker, MeterRegistry registry) {
+        this.service = service;
+        this.timeout = timeout;
+        this.maxRetries = maxRetries;
+        this.backoff = backoff;
+        this.maxBackoff = maxBackoff;
+        this.hedging = hedging;
+        this.minHedgeDelay = minHedgeDelay;
+        this.circuitBreaker = circuitBreaker;
+
+        this.budgetDeposit = (long) (budgetRatio * TOKEN);
+        this.budgetMax = budgetMaxTokens * TOKEN;
+        this.budgetBalance = new AtomicLong(budgetMax);
+
+        this.successes = requestTimer("success")
+                .publishPercentiles(0.95)
+                .register(registry);
+        this.failures = requestTimer("error").register(registry);
+        this.timeouts = requestTimer("timeout").register(registry);
+        this.retries = Counter.builder("integration.retries")
+                .tag("service", service)
+                .tag("result", "attempted")
+                .register(registry);
+        this.retriesRejected = Counter.builder("integration.retries")
+                .tag("service", service)
+                .tag("result", "budget_exhausted")
+                .register(registry);
+        this.hedges = Counter.builder("integration.hedges")
+                .tag("service", service)
+                .description("Hedged attempts fired because the first attempt was slower than the observed p95")
+                .register(registry);
+        Gauge.builder("integration.retry.budget", budgetBalance, balance -> (double) balance.get() / TOKEN)
+                .tag("service", service)
+                .description("Retries currently allowed by the retry budget")
+                .register(registry);
+
+        LOG.info("Created a downstream policy for the {} service with timeout = {}, maxRetries = {}, hedging = {}",
+                service, timeout, maxRetries, hedging);
+    }
+
+    public <T> Mono<T> apply(Supplier<Mono<T>> call) {
+        Retry retry = Retry.backoff(maxRetries, backoff)
+                .maxBackoff(maxBackoff)
+                .jitter(0.5)
+                .filter(ex -> isRetryable(ex) && withdrawRetry())
+                .doBeforeRetry(signal -> {
+                    retries.increment();
+                    LOG.debug("Retry #{} of a call to the {} service after: {}", signal.totalRetries() + 1, service, signal.failure().toString());
+                })
+                .onRetryExhaustedThrow((spec, signal) -> signal.failure());
+
+        return Mono.defer(() -> {
+            depositRequest();
+            return (hedging ? hedgedAttempt(call) : attempt(call)).retryWhen(retry);
+        });
+    }
+
+    /**
+     * Streaming variant: the timeout applies to the first element and the circuit breaker is applied, but there are no
+     * retries or hedges since elements may already have been passed on. The following elements are paced by the
+     * backpressure of the caller, a timeout per element would fail the stream of a slow reader. Errors, a timeout of
+     * the first element included, are passed on so the caller can tell a failed stream from a complete one.
+     * Successful streams are not timed, their duration depends on their size and would skew the p95 used for hedging.
+     */
+    public <T> Flux<T> stream(Supplier<Flux<T>> call) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            return call.get()
+                    .timeout(Mono.delay(timeout), element -> Mono.never())
+                    .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
+                    .doOnError(ex -> (ex instanceof TimeoutException ? timeouts : failures)
+                            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    private <T> Mono<T> attempt(Supplier<Mono<T>> call) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return call.get()
+                    .timeout(timeout)
+                    .transformDeferred(CircuitBreakerOperator.of(circuitBreaker))
+                    .doOnSuccess(result -> successes.record(System.nanoTime() - start, TimeUnit.NANOSECONDS))
+                    .doOnError(ex -> (ex instanceof TimeoutException ? timeouts : failures)
+                            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    private <T> Mono<T> hedgedAttempt(Supplier<Mono<T>> call) {
+        return Mono.defer(() -> {
+            // A failing hedge never wins the race, the first attempt decides the outcome in that case
+            Mono<T> hedge = Mono.delay(hedgeDelay())
+                    .then(Mono.defer(() -> {
+                        hedges.increment();
+                        return attempt(call);
+                    }))
+                    .onErrorResume(ex -> Mono.never());
+            return Mono.firstWithSignal(attempt(call), hedge);
+        });
+    }
+
+    public CircuitBreaker.State getCircuitBreakerState() {
+        return circuitBreaker.getState();
+    }
+
+    private Duration hedgeDelay() {
+        for (ValueAtPercentile percentile : successes.takeSnapshot().percentileValues()) {
+            long p95 = (long) percentile.value(TimeUnit.NANOSECONDS);
+            if (p95 > minHedgeDelay.toNanos()) {
+                return Duration.ofNanos(p95);
+            }
+        }
+        return minHedgeDelay;
+    }
+
+    private boolean isRetryable(Throwable ex) {
+        return ex instanceof TimeoutException
+                || ex instanceof WebClientRequestException
+                || (ex instanceof WebClientResponseException wcre && wcre.getStatusCode().is5xxServerError());
+    }
+
+    private void depositRequest() {
+        budgetBalance.accumulateAndGet(budgetDeposit, (balance, deposit) -> Math.min(budgetMax, balance + deposit));
+    }
+
+    private boolean withdrawRetry() {
+        long balance;
+        do {
+            balance = budgetBalance.get();
+            if (balance < TOKEN) {
+                retriesRejected.increment();
+                LOG.debug("Retry budget for the {} service is exhausted, will not retry", service);
+                return false;
+            }
+        } while (!budgetBalance.compareAndSet(balance, balance - TOKEN));
+        return true;
+    }
+
+    private Timer.Builder requestTimer(String outcome) {
+        return Timer.builder("integration.requests")
+                .tag("service", service)
+                .tag("outcome", outcome)
+                .description("Attempts of calls to a core service, by outcome");
+    }
+}
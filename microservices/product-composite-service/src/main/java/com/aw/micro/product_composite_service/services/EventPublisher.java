@@ -0,0 +1,288 @@
+package com.aw.micro.product_composite_service.services;
+
+import com.aw.micro.api.event.Event;
+import com.aw.micro.api.exceptions.ServiceUnavailableException;
+import com.aw.micro.util.messaging.EventFormats;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the events of the composite service from a few dedicated sender threads.
+ * <p>
+ * Events are put in a bounded queue per sender, events with the same key always use the same sender and reach the
+ * broker in the order they were published. A sender takes all events waiting in its queue, up to maxBatchSize, and
+ * sends them one after the other before it looks at the queue again, so a burst of events costs one wake-up of the
+ * sender instead of one thread hop per event. Each event is still a send of its own to the broker.
+ * The returned Mono completes once the broker has accepted the event.
+ * <p>
+ * A full queue is backpressure: the caller waits for room, without blocking its thread, for at most offerTimeout and
+ * then gets a {@link ServiceUnavailableException}, i.e. a 503 for the HTTP caller. Waiting events are lined up behind
+ * each other and the sender moves them into its queue in that order once it made room, so a later event for a key
+ * never overtakes an earlier one that is still waiting.
+ * <p>
+ * With the spool enabled, events are instead appended to an {@link EventSpool} on local disk and a publish completes
+ * once the event is flushed to disk, independent of the broker. The spool sends them to the broker in the background.
+ */
+@Component
+public class EventPublisher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventPublisher.class);
+
+    private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(5);
+
+    private final StreamBridge streamBridge;
+    private final ObjectWriter spoolWriter;
+    private final MimeType spoolContentType;
+    private final EventSpool spool;
+    private final int maxBatchSize;
+    private final Duration offerTimeout;
+    private final List<Lane> lanes = new ArrayList<>();
+    private final List<Thread> senders = new ArrayList<>();
+    private volatile boolean running = true;
+
+    private final Timer sendLatency;
+    private final DistributionSummary batchSize;
+    private final Counter rejected;
+
+    @Autowired
+    public EventPublisher(StreamBridge streamBridge, EventFormats formats, MeterRegistry registry,
+                          @Value("${app.messaging.contentType:application/json}") String contentType,
+                          @Value("${app.publisher.threads:2}") int threads,
+                          @Value("${app.publisher.queueCapacity:10000}") int queueCapacity,
+                          @Value("${app.publisher.maxBatchSize:500}") int maxBatchSize,
+                          @Value("${app.publisher.offerTimeout:1s}") Duration offerTimeout,
+                          @Value("${app.publisher.spool.enabled:false}") boolean spoolEnabled,
+                          @Value("${app.publisher.spool.directory:${java.io.tmpdir}/product-composite-spool}") Path spoolDirectory,
+                          @Value("${app.publisher.spool.segmentSize:64MB}") DataSize spoolSegmentSize,
+                          @Value("${app.publisher.spool.maxSize:1GB}") DataSize spoolMaxSize,
+                          @Value("${app.publisher.spool.fsyncInterval:2ms}") Duration spoolFsyncInterval) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Event publisher needs at least one sender thread, got: " + threads);
+        }
+        this.streamBridge = streamBridge;
+        // Spooled events are serialized here, in the format the bindings would have used
+        this.spoolWriter = formats.mapperFor(contentType).writerFor(Event.class);
+        this.spoolContentType = MimeType.valueOf(contentType);
+        this.maxBatchSize = maxBatchSize;
+        this.offerTimeout = offerTimeout;
+
+        this.sendLatency = Timer.builder("messaging.publish.latency")
+                .description("Time from publishing an event until the broker accepted it, including the time in the queue")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.batchSize = DistributionSummary.builder("messaging.publish.batch.size")
+                .description("Number of events a sender took from its queue at once")
+                .register(registry);
+        this.rejected = Counter.builder("messaging.publish.rejected")
+                .description("Events rejected because the queue stayed full for offerTimeout")
+                .register(registry);
+        Gauge.builder("messaging.publish.queue.depth", lanes, all -> all.stream().mapToInt(Lane::size).sum())
+                .description("Events waiting to be sent")
+                .register(registry);
+
+        if (spoolEnabled) {
+            spool = new EventSpool(spoolDirectory, spoolSegmentSize.toBytes(), spoolMaxSize.toBytes(), spoolFsyncInterval,
+                    this::sendSpooled, registry);
+            LOG.info("Created an event publisher spooling {} events to {}", contentType, spoolDirectory);
+            return;
+        }
+        spool = null;
+
+        for (int i = 0; i < threads; i++) {
+            Lane lane = new Lane(Math.max(1, queueCapacity / threads));
+            lanes.add(lane);
+            Thread sender = new Thread(() -> sendLoop(lane), "event-publisher-" + i);
+            sender.setDaemon(true);
+            senders.add(sender);
+            sender.start();
+        }
+
+        LOG.info("Created an event publisher with threads = {}, queueCapacity = {}, maxBatchSize = {}",
+                threads, queueCapacity, maxBatchSize);
+    }
+
+    public Mono<Void> publish(String bindingName, Event<Integer, ?> event) {
+        return Mono.defer(() -> {
+            if (!running) {
+                return Mono.error(new ServiceUnavailableException("Event publisher is shutting down"));
+            }
+
+            // Random ids need no coordination between composite instances, collisions are negligible within the dedup window of the consumers
+            Event<Integer, ?> identifiedEvent = event.withEventId(ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE));
+            if (spool != null) {
+                return Mono.fromCallable(() -> spoolWriter.writeValueAsBytes(identifiedEvent))
+                        .flatMap(payload -> spool.append(bindingName, identifiedEvent.getKey(), payload));
+            }
+
+            Pending pending = new Pending(bindingName, identifiedEvent);
+            Lane lane = lanes.get(Math.floorMod(Objects.hashCode(event.getKey()), lanes.size()));
+            if (lane.offer(pending)) {
+                return pending.result.asMono();
+            }
+
+            // A waiting event that is withdrawn was never sent, the events behind it keep their order
+            return pending.queued.asMono()
+                    .timeout(offerTimeout, Mono.<Void>defer(() -> {
+                        if (!lane.withdraw(pending)) {
+                            return Mono.empty();
+                        }
+                        rejected.increment();
+                        LOG.warn("Event queue is full, rejecting a {} event for {}", event.getEventType(), bindingName);
+                        return Mono.error(new ServiceUnavailableException("Too many events waiting to be published, try again later"));
+                    }))
+                    .doOnCancel(() -> lane.withdraw(pending))
+                    .then(pending.result.asMono());
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (spool != null) {
+            spool.close();
+        }
+        for (Thread sender : senders) {
+            try {
+                sender.join(SHUTDOWN_TIMEOUT.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void sendLoop(Lane lane) {
+        BlockingQueue<Pending> queue = lane.queue;
+        List<Pending> batch = new ArrayList<>(maxBatchSize);
+        while (running || lane.size() > 0) {
+            try {
+                lane.moveWaiting();
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - 1);
+                batchSize.record(batch.size());
+                batch.forEach(this::send);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void send(Pending pending) {
+        Event<?, ?> event = pending.event;
+        LOG.debug("Sending a {} message with id {} to {}", event.getEventType(), event.getEventId(), pending.bindingName);
+        Message<?> message = MessageBuilder.withPayload(event)
+                .setHeader("partitionKey", event.getKey())
+                .build();
+        try {
+            boolean sent = streamBridge.send(pending.bindingName, message);
+            sendLatency.record(System.nanoTime() - pending.enqueuedAt, TimeUnit.NANOSECONDS);
+            if (sent) {
+                pending.result.tryEmitEmpty();
+            } else {
+                pending.result.tryEmitError(new ServiceUnavailableException("Event was not accepted by " + pending.bindingName));
+            }
+        } catch (RuntimeException ex) {
+            LOG.warn("Sending a {} event to {} failed: {}", event.getEventType(), pending.bindingName, ex.toString());
+            pending.result.tryEmitError(ex);
+        }
+    }
+
+    private boolean sendSpooled(String bindingName, int key, byte[] payload) {
+        Message<byte[]> message = MessageBuilder.withPayload(payload)
+                .setHeader("partitionKey", key)
+                .setHeader(MessageHeaders.CONTENT_TYPE, spoolContentType)
+                .build();
+        return streamBridge.send(bindingName, message);
+    }
+
+    /**
+     * The queue of one sender, with the events waiting for room in it in the order they were published.
+     */
+    private static class Lane {
+        private final BlockingQueue<Pending> queue;
+        private final Deque<Pending> waiting = new ArrayDeque<>();
+
+        private Lane(int capacity) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        /**
+         * @return false if the event has to wait, behind the events that already wait
+         */
+        private synchronized boolean offer(Pending pending) {
+            if (waiting.isEmpty() && queue.offer(pending)) {
+                return true;
+            }
+            waiting.add(pending);
+            return false;
+        }
+
+        private synchronized void moveWaiting() {
+            while (!waiting.isEmpty() && queue.offer(waiting.peek())) {
+                waiting.poll().queued.tryEmitEmpty();
+            }
+        }
+
+        /**
+         * @return false if the event is already in the queue
+         */
+        private synchronized boolean withdraw(Pending pending) {
+            return waiting.remove(pending);
+        }
+
+        private synchronized int size() {
+            return queue.size() + waiting.size();
+        }
+    }
+
+    private static class Pending {
+        private final String bindingName;
+        private final Event<?, ?> event;
+        private final long enqueuedAt = System.nanoTime();
+        private final Sinks.Empty<Void> queued = Sinks.empty();
+        private final Sinks.One<Void> result = Sinks.one();
+
+        private Pending(String bindingName, Event<?, ?> event) {
+            this.bindingName = bindingName;
+            this.event = event;
+        }
+    }
+}
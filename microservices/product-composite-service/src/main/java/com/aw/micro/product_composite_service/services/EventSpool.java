@@ -0,0 +1,490 @@
+package com.aw.micro.product_composite_service.services;
+
+import com.aw.micro.api.exceptions.ServiceUnavailableException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Append-only spool of outbound events on local disk, made of memory-mapped segment files of segmentSize bytes.
+ * <p>
+ * An append completes once its record is flushed to disk. Appends that arrive while a flush runs are flushed together
+ * by the next one, after waiting fsyncInterval for more appends to join. A drainer thread sends the flushed records in
+ * order and retries the head record with backoff while the broker is unavailable. Its position is stored in the
+ * checkpoint file, which is flushed to disk before the segments it has passed are deleted, so after a restart sending
+ * resumes at the checkpoint, or at the oldest remaining segment if that is further. Records sent after the last
+ * checkpoint are sent again, the consumers skip them by event id.
+ * <p>
+ * A record is [length][crc32][binding name length][binding name][key][payload] and is followed by a zero length, so
+ * recovery stops at the end of the last complete record. A segment ends with a -1 length when the next record
+ * doesn't fit in it. When a flush fails, the records of that flush are turned into tombstones by negating their
+ * length: their appends fail, so they are skipped instead of sent.
+ */
+class EventSpool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventSpool.class);
+
+    private static final int RECORD_HEADER = 8;
+    private static final int END_OF_SEGMENT = -1;
+    private static final int CHECKPOINT_EVERY = 100;
+    private static final Duration IDLE_WAIT = Duration.ofMillis(100);
+    private static final Duration MIN_SEND_BACKOFF = Duration.ofMillis(100);
+    private static final Duration MAX_SEND_BACKOFF = Duration.ofSeconds(5);
+
+    interface Sender {
+        boolean send(String bindingName, int key, byte[] payload);
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxSize;
+    private final Duration fsyncInterval;
+    private final Sender sender;
+    private final FileChannel checkpoint;
+    private final Timer fsyncs;
+
+    // Guarded by this
+    private MappedByteBuffer writeSegment;
+    private long writePosition;
+    private final List<MappedByteBuffer> unflushed = new ArrayList<>();
+    private List<Sinks.One<Void>> waiting = new ArrayList<>();
+
+    private volatile long durablePosition;
+    private volatile long readPosition;
+    private volatile boolean running = true;
+
+    private final Thread flusher;
+    private final Thread drainer;
+
+    EventSpool(Path directory, long segmentSize, long maxSize, Duration fsyncInterval, Sender sender,
+               MeterRegistry registry) throws IOException {
+        if (segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment size must be below 2GB, got: " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = (int) segmentSize;
+        this.maxSize = maxSize;
+        this.fsyncInterval = fsyncInterval;
+        this.sender = sender;
+
+        Files.createDirectories(directory);
+        checkpoint = FileChannel.open(directory.resolve("checkpoint"), CREATE, READ, WRITE);
+        readPosition = startPosition(readCheckpoint());
+        deleteSegmentsBefore(segmentOf(readPosition));
+        writePosition = recover(readPosition);
+        durablePosition = writePosition;
+        writeSegment = map(segmentOf(writePosition));
+        if (offsetOf(writePosition) + 4 <= this.segmentSize) {
+            writeSegment.putInt(offsetOf(writePosition), 0);
+        }
+
+        fsyncs = Timer.builder("messaging.spool.fsync")
+                .description("Time to flush a group of appended events to disk")
+                .publishPercentileHistogram()
+                .register(registry);
+        Gauge.builder("messaging.spool.backlog", this, spool -> spool.durablePosition - spool.readPosition)
+                .description("Bytes of events in the spool that are not sent yet")
+                .baseUnit("bytes")
+                .register(registry);
+
+        flusher = new Thread(this::flushLoop, "event-spool-flusher");
+        drainer = new Thread(this::drainLoop, "event-spool-drainer");
+        flusher.setDaemon(true);
+        drainer.setDaemon(true);
+        flusher.start();
+        drainer.start();
+
+        LOG.info("Opened the event spool in {} with {} bytes not sent yet", directory, writePosition - readPosition);
+    }
+
+    Mono<Void> append(String bindingName, int key, byte[] payload) {
+        return Mono.defer(() -> {
+            byte[] binding = bindingName.getBytes(UTF_8);
+            int length = 2 + binding.length + 4 + payload.length;
+            if (RECORD_HEADER + length + 4 > segmentSize) {
+                return Mono.error(new IllegalArgumentException("Event of " + payload.length + " bytes does not fit in a spool segment"));
+            }
+
+            ByteBuffer body = ByteBuffer.allocate(length)
+                    .putShort((short) binding.length)
+                    .put(binding)
+                    .putInt(key)
+                    .put(payload);
+            CRC32 crc = new CRC32();
+            crc.update(body.array());
+
+            Sinks.One<Void> done = Sinks.one();
+            synchronized (this) {
+                if (!running) {
+                    return Mono.error(new ServiceUnavailableException("Event spool is closed"));
+                }
+                if (writePosition - readPosition + RECORD_HEADER + length > maxSize) {
+                    return Mono.error(new ServiceUnavailableException("Event spool is full, try again later"));
+                }
+
+                int offset = offsetOf(writePosition);
+                if (offset + RECORD_HEADER + length + 4 > segmentSize) {
+                    if (offset + 4 <= segmentSize) {
+                        writeSegment.putInt(offset, END_OF_SEGMENT);
+                    }
+                    markUnflushed();
+                    long next = segmentOf(writePosition) + 1;
+                    try {
+                        writeSegment = map(next);
+                    } catch (IOException e) {
+                        return Mono.error(new UncheckedIOException(e));
+                    }
+                    writePosition = next * segmentSize;
+                    offset = 0;
+                }
+
+                writeSegment.putInt(offset, length);
+                writeSegment.putInt(offset + 4, (int) crc.getValue());
+                writeSegment.put(offset + RECORD_HEADER, body.array());
+                if (offset + RECORD_HEADER + length + 4 <= segmentSize) {
+                    writeSegment.putInt(offset + RECORD_HEADER + length, 0);
+                }
+                writePosition += RECORD_HEADER + length;
+                markUnflushed();
+                waiting.add(done);
+                notifyAll();
+            }
+            return done.asMono();
+        });
+    }
+
+    void close() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        LockSupport.unpark(drainer);
+        try {
+            flusher.join();
+            drainer.join();
+            checkpoint.force(false);
+            checkpoint.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOG.warn("Closing the event spool checkpoint failed: {}", e.toString());
+        }
+    }
+
+    private void markUnflushed() {
+        if (unflushed.isEmpty() || unflushed.get(unflushed.size() - 1) != writeSegment) {
+            unflushed.add(writeSegment);
+        }
+    }
+
+    private void flushLoop() {
+        long flushedPosition = durablePosition;
+        while (true) {
+            try {
+                synchronized (this) {
+                    while (waiting.isEmpty() && running) {
+                        wait();
+                    }
+                    if (waiting.isEmpty()) {
+                        return;
+                    }
+                }
+                if (running && !fsyncInterval.isZero()) {
+                    Thread.sleep(fsyncInterval.toMillis());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            List<MappedByteBuffer> buffers;
+            List<Sinks.One<Void>> done;
+            long position;
+            synchronized (this) {
+                buffers = new ArrayList<>(unflushed);
+                unflushed.clear();
+                done = waiting;
+                waiting = new ArrayList<>();
+                position = writePosition;
+            }
+
+            long start = System.nanoTime();
+            try {
+                buffers.forEach(MappedByteBuffer::force);
+            } catch (UncheckedIOException e) {
+                LOG.error("Flushing the event spool failed, {} appended events are dropped: {}", done.size(), e.toString());
+                // The drainer never reads beyond durablePosition, so the records can still be skipped before it sees them
+                markSkipped(flushedPosition, position);
+                flushedPosition = position;
+                done.forEach(sink -> sink.tryEmitError(new ServiceUnavailableException("Event could not be stored, try again later")));
+                continue;
+            }
+            fsyncs.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+            flushedPosition = position;
+            durablePosition = position;
+            done.forEach(Sinks.One::tryEmitEmpty);
+            LockSupport.unpark(drainer);
+        }
+    }
+
+    /**
+     * Turns the records between the positions into tombstones. Best effort, if the disk keeps failing a tombstone may
+     * not survive a crash and its record is sent after the restart after all.
+     */
+    private void markSkipped(long from, long to) {
+        long position = from;
+        try {
+            MappedByteBuffer segment = null;
+            long segmentIndex = -1;
+            while (position < to) {
+                if (segmentOf(position) != segmentIndex) {
+                    if (segment != null) {
+                        segment.force();
+                    }
+                    segmentIndex = segmentOf(position);
+                    segment = map(segmentIndex);
+                }
+                int offset = offsetOf(position);
+                int length = offset + 4 <= segmentSize ? segment.getInt(offset) : END_OF_SEGMENT;
+                if (length == END_OF_SEGMENT) {
+                    position = (segmentIndex + 1) * segmentSize;
+                    continue;
+                }
+                if (length > 0) {
+                    segment.putInt(offset, -length);
+                }
+                position += RECORD_HEADER + Math.abs(length);
+            }
+            if (segment != null) {
+                segment.force();
+            }
+        } catch (IOException | UncheckedIOException e) {
+            LOG.error("Skipping the records from position {} of the event spool failed: {}", position, e.toString());
+        }
+    }
+
+    private void drainLoop() {
+        MappedByteBuffer segment = null;
+        long segmentIndex = -1;
+        long position = readPosition;
+        int sinceCheckpoint = 0;
+
+        while (running) {
+            if (position >= durablePosition) {
+                if (position != readPosition) {
+                    writeCheckpoint(position);
+                    sinceCheckpoint = 0;
+                }
+                LockSupport.parkNanos(IDLE_WAIT.toNanos());
+                continue;
+            }
+
+            long index = segmentOf(position);
+            int offset = offsetOf(position);
+            if (index != segmentIndex) {
+                // The segment may only go once the checkpoint past it is on disk, or a restart would resume inside it
+                if (segmentIndex >= 0 && writeCheckpoint(position)) {
+                    sinceCheckpoint = 0;
+                    deleteSegment(segmentIndex);
+                }
+                try {
+                    segment = mapReadOnly(index);
+                } catch (IOException e) {
+                    LOG.error("Reading spool segment {} failed, will retry: {}", index, e.toString());
+                    LockSupport.parkNanos(MAX_SEND_BACKOFF.toNanos());
+                    continue;
+                }
+                segmentIndex = index;
+            }
+
+            int length = offset + 4 <= segmentSize ? segment.getInt(offset) : END_OF_SEGMENT;
+            if (length == END_OF_SEGMENT) {
+                position = (index + 1) * segmentSize;
+                continue;
+            }
+
+            if (length < 0) {
+                position += RECORD_HEADER - length;
+                continue;
+            }
+
+            ByteBuffer body = segment.slice(offset + RECORD_HEADER, length);
+            byte[] binding = new byte[body.getShort()];
+            body.get(binding);
+            int key = body.getInt();
+            byte[] payload = new byte[body.remaining()];
+            body.get(payload);
+
+            if (!sendWithBackoff(new String(binding, UTF_8), key, payload)) {
+                break;
+            }
+            position += RECORD_HEADER + length;
+            if (++sinceCheckpoint >= CHECKPOINT_EVERY) {
+                writeCheckpoint(position);
+                sinceCheckpoint = 0;
+            }
+        }
+        writeCheckpoint(position);
+    }
+
+    /**
+     * Returns false if the spool was closed before the record could be sent.
+     */
+    private boolean sendWithBackoff(String bindingName, int key, byte[] payload) {
+        Duration backoff = MIN_SEND_BACKOFF;
+        while (running) {
+            try {
+                if (sender.send(bindingName, key, payload)) {
+                    return true;
+                }
+                LOG.warn("Sending a spooled event to {} was not accepted, will retry in {}", bindingName, backoff);
+            } catch (RuntimeException e) {
+                LOG.warn("Sending a spooled event to {} failed, will retry in {}: {}", bindingName, backoff, e.toString());
+            }
+            LockSupport.parkNanos(backoff.toNanos());
+            backoff = backoff.multipliedBy(2);
+            if (backoff.compareTo(MAX_SEND_BACKOFF) > 0) {
+                backoff = MAX_SEND_BACKOFF;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the position after the last complete record, starting the scan at the given position.
+     */
+    private long recover(long position) throws IOException {
+        while (Files.exists(segmentPath(segmentOf(position)))) {
+            MappedByteBuffer segment = mapReadOnly(segmentOf(position));
+            int offset = offsetOf(position);
+            while (true) {
+                int length = offset + 4 <= segmentSize ? segment.getInt(offset) : END_OF_SEGMENT;
+                if (length == END_OF_SEGMENT) {
+                    position = (segmentOf(position) + 1) * segmentSize;
+                    break;
+                }
+                // A negative length is a tombstone, its record is skipped but still has to be intact
+                int size = Math.abs(length);
+                if (length == 0 || offset + RECORD_HEADER + size > segmentSize) {
+                    return position;
+                }
+                byte[] body = new byte[size];
+                segment.get(offset + RECORD_HEADER, body);
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if ((int) crc.getValue() != segment.getInt(offset + 4)) {
+                    LOG.warn("Found a torn record at position {} of the event spool, dropping it", position);
+                    return position;
+                }
+                offset += RECORD_HEADER + size;
+                position += RECORD_HEADER + size;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Returns the checkpoint, or the start of the oldest segment if the segment of the checkpoint no longer exists,
+     * e.g. because the checkpoint was lost in a crash after the segments it passed were deleted.
+     */
+    private long startPosition(long checkpointPosition) throws IOException {
+        long oldest;
+        try (Stream<Path> files = Files.list(directory)) {
+            oldest = files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(".segment"))
+                    .mapToLong(name -> Long.parseLong(name.replace(".segment", "")))
+                    .min()
+                    .orElse(-1);
+        }
+        if (oldest > segmentOf(checkpointPosition)) {
+            LOG.warn("Segment of the event spool checkpoint {} no longer exists, resuming at segment {}", checkpointPosition, oldest);
+            return oldest * segmentSize;
+        }
+        return checkpointPosition;
+    }
+
+    private long readCheckpoint() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        return checkpoint.read(buffer, 0) == 8 ? buffer.getLong(0) : 0;
+    }
+
+    /**
+     * Returns true if the checkpoint is on disk.
+     */
+    private boolean writeCheckpoint(long position) {
+        try {
+            checkpoint.write(ByteBuffer.allocate(8).putLong(0, position), 0);
+            checkpoint.force(false);
+            readPosition = position;
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Writing the event spool checkpoint failed: {}", e.toString());
+            return false;
+        }
+    }
+
+    private void deleteSegmentsBefore(long index) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> file.getFileName().toString().endsWith(".segment"))
+                    .filter(file -> Long.parseLong(file.getFileName().toString().replace(".segment", "")) < index)
+                    .forEach(file -> deleteSegment(Long.parseLong(file.getFileName().toString().replace(".segment", ""))));
+        }
+    }
+
+    private void deleteSegment(long index) {
+        try {
+            Files.deleteIfExists(segmentPath(index));
+        } catch (IOException e) {
+            LOG.warn("Deleting spool segment {} failed: {}", index, e.toString());
+        }
+    }
+
+    private MappedByteBuffer map(long index) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(index), CREATE, READ, WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private MappedByteBuffer mapReadOnly(long index) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(index), READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, segmentSize);
+        }
+    }
+
+    private Path segmentPath(long index) {
+        return directory.resolve(String.format("%020d.segment", index));
+    }
+
+    private long segmentOf(long position) {
+        return position / segmentSize;
+    }
+
+    private int offsetOf(long position) {
+        return (int) (position % segmentSize);
+    }
+}
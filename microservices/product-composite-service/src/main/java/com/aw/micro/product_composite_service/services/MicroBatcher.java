@@ -0,0 +1,136 @@
+package com.aw.micro.product_composite_service.services;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * DataLoader style micro-batching of single productId lookups.
+ * <p>
+ * Lookups are buffered until either the window has passed since the first lookup of the batch or maxSize lookups
+ * are waiting. The batch is then sent as one multi-id call and the result is split up per productId again.
+ */
+class MicroBatcher<V> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MicroBatcher.class);
+
+    private final String service;
+    private final Function<List<Integer>, Flux<V>> batchCall;
+    private final Function<V, Integer> productIdOf;
+    private final int maxSize;
+    private final Duration window;
+    private final Scheduler timer = Schedulers.parallel();
+
+    private final DistributionSummary batchSize;
+    private final Timer queueDelay;
+
+    private Batch<V> current;
+
+    MicroBatcher(String service, Function<List<Integer>, Flux<V>> batchCall, Function<V, Integer> productIdOf,
+                 int maxSize, Duration window, MeterRegistry registry) {
+        this.service = service;
+        this.batchCall = batchCall;
+        this.productIdOf = productIdOf;
+        this.maxSize = maxSize;
+        this.window = window;
+        this.batchSize = DistributionSummary.builder("integration.batch.size")
+                .tag("service", service)
+                .description("Number of lookups sent downstream in one batch")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.queueDelay = Timer.builder("integration.batch.queue.delay")
+                .tag("service", service)
+                .description("Time a lookup waited for its batch to be sent")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * Returns the values found for the productId, an empty list if none were found.
+     */
+    Mono<List<V>> load(int productId) {
+        return Mono.defer(() -> {
+            Lookup<V> lookup = new Lookup<>(productId, System.nanoTime());
+            Batch<V> full = null;
+
+            synchronized (this) {
+                if (current == null) {
+                    Batch<V> batch = new Batch<>();
+                    current = batch;
+                    timer.schedule(() -> flushIfCurrent(batch), window.toNanos(), TimeUnit.NANOSECONDS);
+                }
+                current.lookups.add(lookup);
+                if (current.lookups.size() >= maxSize) {
+                    full = current;
+                    current = null;
+                }
+            }
+
+            if (full != null) {
+                send(full);
+            }
+            return lookup.result.asMono();
+        });
+    }
+
+    private void flushIfCurrent(Batch<V> batch) {
+        synchronized (this) {
+            if (current != batch) {
+                return;
+            }
+            current = null;
+        }
+        send(batch);
+    }
+
+    private void send(Batch<V> batch) {
+        long now = System.nanoTime();
+        batch.lookups.forEach(lookup -> queueDelay.record(now - lookup.enqueuedAt, TimeUnit.NANOSECONDS));
+        batchSize.record(batch.lookups.size());
+
+        List<Integer> productIds = batch.lookups.stream().map(lookup -> lookup.productId).distinct().collect(Collectors.toList());
+        LOG.debug("Sending a batch of {} lookups for {} productIds to the {} service", batch.lookups.size(), productIds.size(), service);
+
+        batchCall.apply(productIds)
+                .collect(Collectors.groupingBy(productIdOf))
+                .subscribe(
+                        valuesByProductId -> complete(batch, valuesByProductId),
+                        error -> batch.lookups.forEach(lookup -> lookup.result.tryEmitError(error)));
+    }
+
+    private void complete(Batch<V> batch, Map<Integer, List<V>> valuesByProductId) {
+        batch.lookups.forEach(lookup ->
+                lookup.result.tryEmitValue(valuesByProductId.getOrDefault(lookup.productId, Collections.emptyList())));
+    }
+
+    private static class Batch<V> {
+        private final List<Lookup<V>> lookups = new ArrayList<>();
+    }
+
+    private static class Lookup<V> {
+        private final int productId;
+        private final long enqueuedAt;
+        private final Sinks.One<List<V>> result = Sinks.one();
+
+        private Lookup(int productId, long enqueuedAt) {
+            this.productId = productId;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
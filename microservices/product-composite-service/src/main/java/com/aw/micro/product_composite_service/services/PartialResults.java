@@ -0,0 +1,37 @@
+package com.aw.micro.product_composite_service.services;
+
+import reactor.core.publisher.Flux;
+import reactor.util.context.Context;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tells a caller that the result it assembled contains a fallback instead of the real data of a downstream service.
+ * <p>
+ * The fallback sets the flag that the caller put in the subscriber context, so partial aggregates are still returned
+ * but are not cached, see {@link ProductAggregateCache}. Callers without a flag in their context are not affected.
+ */
+final class PartialResults {
+
+    private static final String KEY = PartialResults.class.getName();
+
+    private PartialResults() {
+    }
+
+    /**
+     * Completes empty and marks the result of the subscriber as partial.
+     */
+    static <T> Flux<T> fallback() {
+        return Flux.deferContextual(context -> {
+            context.<AtomicBoolean>getOrEmpty(KEY).ifPresent(partial -> partial.set(true));
+            return Flux.empty();
+        });
+    }
+
+    /**
+     * Adds the flag that fallbacks of the subscription set.
+     */
+    static Context track(Context context, AtomicBoolean partial) {
+        return context.put(KEY, partial);
+    }
+}
@@ -0,0 +1,247 @@
+package com.aw.micro.product_composite_service.services;
+
+import com.aw.micro.api.composite.ProductAggregate;
+import com.aw.micro.api.exceptions.NotFoundException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Size bounded, TTL backed cache of assembled {@link ProductAggregate}s keyed by productId.
+ * <p>
+ * A {@link NotFoundException} from the product service is cached as well, with its own (shorter) TTL. Aggregates
+ * that were assembled with a fallback for the recommendations or reviews are returned but not cached, see
+ * {@link PartialResults}.
+ * <p>
+ * Entries are invalidated when a product, recommendation or review event for the productId is seen,
+ * see {@link com.aw.micro.product_composite_service.config.MessageProcessorConfig}. The events are seen about when
+ * the core services receive them, not when they have applied them, so a load in between can still read and cache
+ * the old state. That entry is served until its TTL expires: the TTL bounds how long a write can stay invisible and
+ * is kept short for that reason.
+ * <p>
+ * Loads in progress are tracked per productId outside the cache, with the number of invalidations of the productId
+ * seen since they started. A load only stores its result if there was none, so a load that overlaps an invalidation
+ * of the same productId is dropped while loads of other productIds are not affected. Invalidations of productIds that
+ * are neither cached nor being loaded leave no trace.
+ */
+@Component
+public class ProductAggregateCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProductAggregateCache.class);
+
+    private final boolean enabled;
+    private final Cache<Integer, CachedAggregate> cache;
+    private final Counter invalidations;
+
+    // Only productIds that are being loaded have an entry, so it stays as small as the number of concurrent loads
+    private final ConcurrentHashMap<Integer, Loads> loads = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ProductAggregateCache(
+            MeterRegistry registry,
+            @Value("${app.cache.product-aggregate.enabled:true}") boolean enabled,
+            @Value("${app.cache.product-aggregate.maxSize:10000}") long maxSize,
+            @Value("${app.cache.product-aggregate.ttl:10s}") Duration ttl,
+            @Value("${app.cache.product-aggregate.notFoundTtl:5s}") Duration notFoundTtl) {
+
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new CachedAggregateExpiry(ttl.toNanos(), notFoundTtl.toNanos()))
+                .recordStats()
+                .build();
+        this.invalidations = Counter.builder("cache.invalidations")
+                .tag("cache", "productAggregate")
+                .description("Entries invalidated by product, recommendation or review events")
+                .register(registry);
+
+        CaffeineCacheMetrics.monitor(registry, cache, "productAggregate");
+        LOG.info("Created a productAggregate cache, enabled = {}, maxSize = {}, ttl = {}, notFoundTtl = {}",
+                enabled, maxSize, ttl, notFoundTtl);
+    }
+
+    public Mono<ProductAggregate> get(int productId, Supplier<Mono<ProductAggregate>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+
+        return Mono.defer(() -> {
+            CachedAggregate cached = cache.getIfPresent(productId);
+            if (cached != null) {
+                LOG.debug("Found productAggregate for productId: {} in cache", productId);
+                return cached.toMono();
+            }
+
+            AtomicBoolean partial = new AtomicBoolean();
+            long invalidationsSeen = startLoad(productId);
+            return loader.get()
+                    .doOnNext(aggregate -> put(productId, invalidationsSeen, partial, new CachedAggregate(aggregate, null)))
+                    .doOnError(NotFoundException.class,
+                            ex -> put(productId, invalidationsSeen, partial, new CachedAggregate(null, ex)))
+                    .doFinally(signal -> finishLoad(productId))
+                    .contextWrite(context -> PartialResults.track(context, partial));
+        });
+    }
+
+    /**
+     * Returns the cached aggregate, or the cached not found error, without loading anything on a cache miss.
+     */
+    public Mono<ProductAggregate> getIfPresent(int productId) {
+        if (!enabled) {
+            return Mono.empty();
+        }
+
+        return Mono.defer(() -> {
+            CachedAggregate cached = cache.getIfPresent(productId);
+            return cached != null ? cached.toMono() : Mono.empty();
+        });
+    }
+
+    /**
+     * Returns the aggregates of the given productIds in the requested order, loading all cache misses with one call to the loader.
+     * Product ids that are not found, in the cache or by the loader, are skipped.
+     */
+    public Flux<ProductAggregate> getAll(List<Integer> productIds, Function<List<Integer>, Flux<ProductAggregate>> loader) {
+        if (!enabled) {
+            return loader.apply(productIds);
+        }
+
+        return Flux.defer(() -> {
+            Map<Integer, ProductAggregate> found = new HashMap<>();
+            List<Integer> misses = new ArrayList<>();
+            for (Integer productId : productIds) {
+                CachedAggregate cached = cache.getIfPresent(productId);
+                if (cached == null) {
+                    misses.add(productId);
+                } else if (!cached.isNotFound()) {
+                    found.put(productId, cached.aggregate());
+                }
+            }
+            LOG.debug("Found {} of {} productAggregates in cache", productIds.size() - misses.size(), productIds.size());
+
+            if (misses.isEmpty()) {
+                return Flux.fromIterable(productIds).mapNotNull(found::get);
+            }
+
+            AtomicBoolean partial = new AtomicBoolean();
+            Map<Integer, Long> invalidationsSeen = new HashMap<>();
+            misses.forEach(productId -> invalidationsSeen.put(productId, startLoad(productId)));
+            return loader.apply(misses)
+                    .doOnNext(aggregate -> {
+                        found.put(aggregate.getProductId(), aggregate);
+                        Long seen = invalidationsSeen.get(aggregate.getProductId());
+                        if (seen != null) {
+                            put(aggregate.getProductId(), seen, partial, new CachedAggregate(aggregate, null));
+                        }
+                    })
+                    .doFinally(signal -> misses.forEach(this::finishLoad))
+                    .contextWrite(context -> PartialResults.track(context, partial))
+                    .thenMany(Flux.fromIterable(productIds).mapNotNull(found::get));
+        });
+    }
+
+    public void invalidate(int productId) {
+        loads.computeIfPresent(productId, (key, current) -> {
+            current.invalidations++;
+            return current;
+        });
+        cache.invalidate(productId);
+        invalidations.increment();
+        LOG.debug("Invalidated productAggregate for productId: {}", productId);
+    }
+
+    /**
+     * Registers a load of the productId and returns the number of invalidations of it seen so far.
+     */
+    private long startLoad(int productId) {
+        long[] invalidationsSeen = new long[1];
+        loads.compute(productId, (key, current) -> {
+            Loads started = current != null ? current : new Loads();
+            started.count++;
+            invalidationsSeen[0] = started.invalidations;
+            return started;
+        });
+        return invalidationsSeen[0];
+    }
+
+    private void finishLoad(int productId) {
+        loads.computeIfPresent(productId, (key, current) -> --current.count == 0 ? null : current);
+    }
+
+    /**
+     * Stores a loaded value if the load was complete and the productId was not invalidated while it was loaded.
+     * The check and the put are done under the lock of the productId in loads, so an invalidation comes either
+     * before the check or after the put.
+     */
+    private void put(int productId, long invalidationsSeen, AtomicBoolean partial, CachedAggregate value) {
+        if (partial.get()) {
+            LOG.debug("Not caching the partial productAggregate for productId: {}", productId);
+            return;
+        }
+        loads.computeIfPresent(productId, (key, current) -> {
+            if (current.invalidations == invalidationsSeen) {
+                cache.put(productId, value);
+            } else {
+                LOG.debug("Not caching the productAggregate for productId: {}, it was invalidated while loading", productId);
+            }
+            return current;
+        });
+    }
+
+    /**
+     * Guarded by the lock of its productId in loads.
+     */
+    private static class Loads {
+        private int count;
+        private long invalidations;
+    }
+
+    private record CachedAggregate(ProductAggregate aggregate, NotFoundException notFound) {
+
+        Mono<ProductAggregate> toMono() {
+            return notFound != null ? Mono.error(new NotFoundException(notFound.getMessage())) : Mono.just(aggregate);
+        }
+
+        boolean isNotFound() {
+            return notFound != null;
+        }
+    }
+
+    private record CachedAggregateExpiry(long ttlNanos, long notFoundTtlNanos) implements Expiry<Integer, CachedAggregate> {
+
+        @Override
+        public long expireAfterCreate(Integer key, CachedAggregate value, long currentTime) {
+            return value.isNotFound() ? notFoundTtlNanos : ttlNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(Integer key, CachedAggregate value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(Integer key, CachedAggregate value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -9,56 +9,81 @@ import com.aw.micro.api.core.review.ReviewService;
 import com.aw.micro.api.event.Event;
 import com.aw.micro.api.exceptions.InvalidInputException;
 import com.aw.micro.api.exceptions.NotFoundException;
+import com.aw.micro.api.exceptions.ServiceUnavailableException;
 import com.aw.micro.util.http.HttpErrorInfo;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.health.Health;
-import org.springframework.cloud.stream.function.StreamBridge;
 import org.springframework.http.HttpStatusCode;
-import org.springframework.messaging.Message;
-import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Scheduler;
 
-import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
+import java.util.stream.Collectors;
 
 import static com.aw.micro.api.event.Event.Type.CREATE;
 import static com.aw.micro.api.event.Event.Type.DELETE;
 import static java.util.logging.Level.FINE;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
 import static org.springframework.http.HttpStatus.UNPROCESSABLE_ENTITY;
-import static reactor.core.publisher.Flux.empty;
 
 @Component
 public class ProductCompositeIntegration implements ProductService, RecommendationService, ReviewService {
 
     private static final Logger LOG = LoggerFactory.getLogger(ProductCompositeIntegration.class);
 
-    private final StreamBridge streamBridge;
-    private final WebClient webClient;
-    private final Scheduler publishEventScheduler;
-
-    private final ObjectMapper mapper;
+    private final EventPublisher eventPublisher;
+    private final WebClient productWebClient;
+    private final WebClient recommendationWebClient;
+    private final WebClient reviewWebClient;
 
     private final String productServiceUrl;
     private final String recommendationServiceUrl;
     private final String reviewServiceUrl;
 
+    private final RequestCoalescer<Integer, Product> productCoalescer;
+    private final RequestCoalescer<Integer, List<Recommendation>> recommendationCoalescer;
+    private final RequestCoalescer<Integer, List<Review>> reviewCoalescer;
+
+    private final int maxItemsPerEvent;
+
+    private final boolean batchingEnabled;
+    private final MicroBatcher<Product> productBatcher;
+    private final MicroBatcher<Recommendation> recommendationBatcher;
+    private final MicroBatcher<Review> reviewBatcher;
+
+    private final DownstreamPolicy productPolicy;
+    private final DownstreamPolicy recommendationPolicy;
+    private final DownstreamPolicy reviewPolicy;
+
     @Autowired
     public ProductCompositeIntegration(
-            StreamBridge streamBridge,
-            WebClient.Builder webclient,
-            @Qualifier("publishEventScheduler") Scheduler publishEventScheduler,
-            ObjectMapper mapper,
+            EventPublisher eventPublisher,
+            @Qualifier("productWebClient") WebClient productWebClient,
+            @Qualifier("recommendationWebClient") WebClient recommendationWebClient,
+            @Qualifier("reviewWebClient") WebClient reviewWebClient,
+            MeterRegistry registry,
+            @Qualifier("productPolicy") DownstreamPolicy productPolicy,
+            @Qualifier("recommendationPolicy") DownstreamPolicy recommendationPolicy,
+            @Qualifier("reviewPolicy") DownstreamPolicy reviewPolicy,
+            @Value("${app.coalescing.enabled:true}") boolean coalescingEnabled,
+            @Value("${app.batching.enabled:false}") boolean batchingEnabled,
+            @Value("${app.batching.maxSize:50}") int batchMaxSize,
+            @Value("${app.batching.window:2ms}") Duration batchWindow,
+            @Value("${app.publisher.maxItemsPerEvent:500}") int maxItemsPerEvent,
             @Value("${app.product-service.host}") String productServiceHost,
             @Value("${app.product-service.port}") int productServicePort,
             @Value("${app.recommendation-service.host}") String recommendationServiceHost,
@@ -66,109 +91,361 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
             @Value("${app.review-service.host}") String reviewServiceHost,
             @Value("${app.review-service.port}") int reviewServicePort) {
 
-        this.mapper = mapper;
-        this.publishEventScheduler = publishEventScheduler;
-        this.webClient = webclient.build();
-        this.streamBridge = streamBridge;
+        this.productWebClient = productWebClient;
+        this.recommendationWebClient = recommendationWebClient;
+        this.reviewWebClient = reviewWebClient;
+        this.eventPublisher = eventPublisher;
+        this.productPolicy = productPolicy;
+        this.recommendationPolicy = recommendationPolicy;
+        this.reviewPolicy = reviewPolicy;
 
         productServiceUrl = "http://" + productServiceHost + ":" + productServicePort + "/product";
         recommendationServiceUrl = "http://" + recommendationServiceHost + ":" + recommendationServicePort + "/recommendation";
         reviewServiceUrl = "http://" + reviewServiceHost + ":" + reviewServicePort + "/review";
+
+        productCoalescer = new RequestCoalescer<>("product", coalescingEnabled, registry);
+        recommendationCoalescer = new RequestCoalescer<>("recommendation", coalescingEnabled, registry);
+        reviewCoalescer = new RequestCoalescer<>("review", coalescingEnabled, registry);
+
+        this.maxItemsPerEvent = maxItemsPerEvent;
+        this.batchingEnabled = batchingEnabled;
+        productBatcher = new MicroBatcher<>("product", this::getProducts, Product::getProductId, batchMaxSize, batchWindow, registry);
+        recommendationBatcher = new MicroBatcher<>("recommendation", this::fetchRecommendations, Recommendation::getProductId, batchMaxSize, batchWindow, registry);
+        reviewBatcher = new MicroBatcher<>("review", this::fetchReviews, Review::getProductId, batchMaxSize, batchWindow, registry);
     }
 
     @Override
     public Mono<Product> getProduct(int productId) {
 
+        // Fail fast while the product service is known to be down, instead of waiting for a connection to fail
+        return productCoalescer.execute(productId, () -> internalGetProduct(productId))
+                .onErrorMap(CallNotPermittedException.class,
+                        ex -> new ServiceUnavailableException("Product service is unavailable, try again later"));
+    }
+
+    private Mono<Product> internalGetProduct(int productId) {
+
+        // Invalid ids are sent on their own, so they can't fail the batch they would otherwise be part of
+        if (batchingEnabled && productId > 0) {
+            return productBatcher.load(productId)
+                    .flatMap(products -> products.isEmpty()
+                            ? Mono.error(new NotFoundException("No product for id: " + productId))
+                            : Mono.just(products.get(0)));
+        }
+
         String url = productServiceUrl + "/" + productId;
         LOG.debug("Will call the getProduct API on URL: {}", url);
 
-        return webClient.get().uri(url).retrieve()
+        return productPolicy.apply(() -> productWebClient.get().uri(url).retrieve()
                 .bodyToMono(Product.class)
                 .log(LOG.getName(), Level.FINE)
-                .onErrorMap(WebClientResponseException.class, this::handleException);
+                .onErrorMap(WebClientResponseException.class, this::handleException));
 
     }
 
     @Override
-    public Mono<Product> createProduct(Product body) {
+    public Flux<Product> getProducts(List<Integer> productIds) {
 
-            return Mono.fromCallable(()->{
-                sendMessage("products-out-0",
-                        new Event(CREATE,body.getProductId(),body));
-                return body;
-            }).subscribeOn(publishEventScheduler);
+        String url = productServiceUrl + "?productIds=" + toQueryValue(productIds);
+        LOG.debug("Will call the getProducts API on URL: {}", url);
 
+        return productPolicy.apply(() -> productWebClient.get().uri(url).retrieve()
+                        .bodyToFlux(Product.class)
+                        .log(LOG.getName(), FINE)
+                        .onErrorMap(WebClientResponseException.class, this::handleException)
+                        .collectList())
+                .flatMapIterable(products -> products);
+    }
+
+    @Override
+    public Mono<Product> createProduct(Product body) {
+        return eventPublisher.publish("products-out-0", new Event<>(CREATE, body.getProductId(), body))
+                .thenReturn(body);
+    }
+
+    /**
+     * Sets the patched fields of the product with an UPDATE event, the product is not deleted and recreated.
+     */
+    public Mono<Void> updateProduct(int productId, Product patch, List<String> patchedFields) {
+        return eventPublisher.publish("products-out-0", Event.update(productId, patch, patchedFields));
     }
 
     @Override
     public Mono<Void> deleteProduct(int productId) {
-        return Mono.fromRunnable(
-                ()->sendMessage("products-out-0",
-                        new Event<>(DELETE,productId,null))
-        ).subscribeOn(publishEventScheduler).then();
+        return eventPublisher.publish("products-out-0", new Event<>(DELETE, productId, null));
     }
 
 
     @Override
     public Flux<Recommendation> getRecommendations(int productId) {
+        return recommendationCoalescer.execute(productId, () -> internalGetRecommendations(productId).collectList())
+                .flatMapIterable(recommendations -> recommendations)
+                .onErrorResume(error -> PartialResults.fallback());
+    }
+
+    private Flux<Recommendation> internalGetRecommendations(int productId) {
+
+        if (batchingEnabled && productId > 0) {
+            return recommendationBatcher.load(productId).flatMapIterable(recommendations -> recommendations);
+        }
 
             String url = recommendationServiceUrl + "?productId=" + productId;
             LOG.debug("Will call the getRecommendations API on URL: {}", url);
-        return webClient.get().uri(url).retrieve().bodyToFlux(Recommendation.class).log(LOG.getName(), FINE).onErrorResume(error -> empty());
+        return recommendationPolicy.apply(() -> recommendationWebClient.get().uri(url).retrieve()
+                        .bodyToFlux(Recommendation.class)
+                        .log(LOG.getName(), FINE)
+                        .onErrorMap(WebClientResponseException.class, this::handleException)
+                        .collectList())
+                .flatMapIterable(result -> result);
 
     }
 
+    /**
+     * Recommendations without content are read straight from the recommendation service, only full reads are
+     * coalesced and batched.
+     */
     @Override
-    public Mono<Recommendation> createRecommendation(Recommendation body) {
-        return Mono.fromCallable(() -> {
-            sendMessage("recommendations-out-0", new Event(CREATE, body.getProductId(), body));
-            return body;
-        }).subscribeOn(publishEventScheduler);
+    public Flux<Recommendation> getRecommendations(int productId, boolean includeContent) {
+        if (includeContent) {
+            return getRecommendations(productId);
+        }
+
+        String url = recommendationServiceUrl + "?productId=" + productId + "&includeContent=false";
+        LOG.debug("Will call the getRecommendations API on URL: {}", url);
 
+        return recommendationPolicy.apply(() -> recommendationWebClient.get().uri(url).retrieve()
+                        .bodyToFlux(Recommendation.class)
+                        .log(LOG.getName(), FINE)
+                        .onErrorMap(WebClientResponseException.class, this::handleException)
+                        .collectList())
+                .flatMapIterable(result -> result)
+                .onErrorResume(error -> PartialResults.fallback());
     }
 
     @Override
-    public Mono<Void> deleteRecommendation(int productId) {
+    public Flux<Recommendation> getRecommendations(List<Integer> productIds) {
+        return fetchRecommendations(productIds).onErrorResume(error -> PartialResults.fallback());
+    }
+
+    /**
+     * Without a fallback, so the micro batcher fails the loads of the batch instead of handing them empty results.
+     */
+    private Flux<Recommendation> fetchRecommendations(List<Integer> productIds) {
 
-        return Mono.fromRunnable(() -> sendMessage("recommendations-out-0", new Event(DELETE, productId, null)))
-                .subscribeOn(publishEventScheduler).then();
+        String url = recommendationServiceUrl + "?productIds=" + toQueryValue(productIds);
+        LOG.debug("Will call the getRecommendations API on URL: {}", url);
 
+        return recommendationPolicy.apply(() -> recommendationWebClient.get().uri(url).retrieve()
+                        .bodyToFlux(Recommendation.class)
+                        .log(LOG.getName(), FINE)
+                        .onErrorMap(WebClientResponseException.class, this::handleException)
+                        .collectList())
+                .flatMapIterable(result -> result);
+    }
+
+    /**
+     * Pages are not turned into empty results on errors, an empty page would look like the end of the list.
+     */
+    @Override
+    public Flux<Recommendation> getRecommendationsPage(int productId, int after, int limit) {
 
+        String url = recommendationServiceUrl + "?productId=" + productId + "&after=" + after + "&limit=" + limit;
+        LOG.debug("Will call the getRecommendationsPage API on URL: {}", url);
+
+        return recommendationPolicy.apply(() -> recommendationWebClient.get().uri(url).retrieve()
+                        .bodyToFlux(Recommendation.class)
+                        .log(LOG.getName(), FINE)
+                        .onErrorMap(WebClientResponseException.class, this::handleException)
+                        .collectList())
+                .flatMapIterable(result -> result);
     }
 
+    /**
+     * Streams the recommendations as NDJSON, element by element with backpressure, without collecting them first.
+     * Errors are passed on, the elements before them may already have been sent.
+     */
+    public Flux<Recommendation> streamRecommendations(int productId) {
+
+        String url = recommendationServiceUrl + "?productId=" + productId;
+        LOG.debug("Will stream the getRecommendations API on URL: {}", url);
+
+        return recommendationPolicy.stream(() -> recommendationWebClient.get().uri(url).accept(APPLICATION_NDJSON)
+                        .retrieve().bodyToFlux(Recommendation.class))
+                .log(LOG.getName(), FINE)
+                .doOnError(error -> LOG.warn("Streaming recommendations for productId: {} failed: {}", productId, error.toString()));
+    }
+
+    @Override
+    public Mono<Recommendation> createRecommendation(Recommendation body) {
+        return eventPublisher.publish("recommendations-out-0", new Event<>(CREATE, body.getProductId(), body))
+                .thenReturn(body);
+    }
+
+    /**
+     * Creates all the recommendations of the product with CREATE_ALL events of at most maxItemsPerEvent recommendations.
+     */
+    public Mono<Void> createRecommendations(int productId, List<Recommendation> recommendations) {
+        return createAll("recommendations-out-0", productId, recommendations);
+    }
+
+    public Mono<Void> updateRecommendation(int productId, Recommendation patch, List<String> patchedFields) {
+        return eventPublisher.publish("recommendations-out-0", Event.update(productId, patch, patchedFields));
+    }
+
+    @Override
+    public Mono<Void> deleteRecommendation(int productId) {
+        return eventPublisher.publish("recommendations-out-0", new Event<>(DELETE, productId, null));
+    }
+
+    @Override
     public Flux<Review> getReviews(int productId) {
+        // Return an empty result if something goes wrong to make it possible for the composite service to return partial responses
+        return reviewCoalescer.execute(productId, () -> internalGetReviews(productId).collectList())
+                .flatMapIterable(reviews -> reviews)
+                .onErrorResume(error -> PartialResults.fallback());
+    }
+
+    private Flux<Review> internalGetReviews(int productId) {
+
+        if (batchingEnabled && productId > 0) {
+            return reviewBatcher.load(productId).flatMapIterable(reviews -> reviews);
+        }
 
 
             String url = reviewServiceUrl + "?productId=" + productId;
 
         LOG.debug("Will call the getReviews API on URL: {}", url);
 
-        // Return an empty result if something goes wrong to make it possible for the composite service to return partial responses
-        return webClient.get().uri(url).retrieve().bodyToFlux(Review.class).log(LOG.getName(), FINE).onErrorResume(error -> empty());
+        return reviewPolicy.apply(() -> reviewWebClient.get().uri(url).retrieve()
+                        .bodyToFlux(Review.class)
+                        .log(LOG.getName(), FINE)
+                        .onErrorMap(WebClientResponseException.class, this::handleException)
+                        .collectList())
+                .flatMapIterable(result -> result);
+    }
+
+    /**
+     * Reviews without content are read straight from the review service, only full reads are coalesced and batched.
+     */
+    @Override
+    public Flux<Review> getReviews(int productId, boolean includeContent) {
+        if (includeContent) {
+            return getReviews(productId);
+        }
+
+        String url = reviewServiceUrl + "?productId=" + productId + "&includeContent=false";
+        LOG.debug("Will call the getReviews API on URL: {}", url);
+
+        return reviewPolicy.apply(() -> reviewWebClient.get().uri(url).retrieve()
+                        .bodyToFlux(Review.class)
+                        .log(LOG.getName(), FINE)
+                        .onErrorMap(WebClientResponseException.class, this::handleException)
+                        .collectList())
+                .flatMapIterable(result -> result)
+                .onErrorResume(error -> PartialResults.fallback());
+    }
+
+    @Override
+    public Flux<Review> getReviews(List<Integer> productIds) {
+        return fetchReviews(productIds).onErrorResume(error -> PartialResults.fallback());
+    }
+
+    /**
+     * Without a fallback, so the micro batcher fails the loads of the batch instead of handing them empty results.
+     */
+    private Flux<Review> fetchReviews(List<Integer> productIds) {
+
+        String url = reviewServiceUrl + "?productIds=" + toQueryValue(productIds);
+        LOG.debug("Will call the getReviews API on URL: {}", url);
+
+        return reviewPolicy.apply(() -> reviewWebClient.get().uri(url).retrieve()
+                        .bodyToFlux(Review.class)
+                        .log(LOG.getName(), FINE)
+                        .onErrorMap(WebClientResponseException.class, this::handleException)
+                        .collectList())
+                .flatMapIterable(result -> result);
+    }
+
+    /**
+     * Pages are not turned into empty results on errors, an empty page would look like the end of the list.
+     */
+    @Override
+    public Flux<Review> getReviewsPage(int productId, int after, int limit) {
+
+        String url = reviewServiceUrl + "?productId=" + productId + "&after=" + after + "&limit=" + limit;
+        LOG.debug("Will call the getReviewsPage API on URL: {}", url);
+
+        return reviewPolicy.apply(() -> reviewWebClient.get().uri(url).retrieve()
+                        .bodyToFlux(Review.class)
+                        .log(LOG.getName(), FINE)
+                        .onErrorMap(WebClientResponseException.class, this::handleException)
+                        .collectList())
+                .flatMapIterable(result -> result);
+    }
+
+    /**
+     * Streams the reviews as NDJSON, element by element with backpressure, without collecting them first.
+     */
+    public Flux<Review> streamReviews(int productId) {
+
+        String url = reviewServiceUrl + "?productId=" + productId;
+        LOG.debug("Will stream the getReviews API on URL: {}", url);
+
+        return reviewPolicy.stream(() -> reviewWebClient.get().uri(url).accept(APPLICATION_NDJSON)
+                        .retrieve().bodyToFlux(Review.class))
+                .log(LOG.getName(), FINE)
+                .doOnError(error -> LOG.warn("Streaming reviews for productId: {} failed: {}", productId, error.toString()));
     }
 
     @Override
     public Mono<Review> createReview(Review body) {
-        return Mono.fromCallable(() -> {
-        sendMessage("reviews-out-0", new Event(CREATE, body.getProductId(), body));
-        return body;
-    }).subscribeOn(publishEventScheduler);
+        return eventPublisher.publish("reviews-out-0", new Event<>(CREATE, body.getProductId(), body))
+                .thenReturn(body);
+    }
+
+    /**
+     * Creates all the reviews of the product with CREATE_ALL events of at most maxItemsPerEvent reviews.
+     */
+    public Mono<Void> createReviews(int productId, List<Review> reviews) {
+        return createAll("reviews-out-0", productId, reviews);
+    }
+
+    public Mono<Void> updateReview(int productId, Review patch, List<String> patchedFields) {
+        return eventPublisher.publish("reviews-out-0", Event.update(productId, patch, patchedFields));
     }
 
     @Override
     public Mono<Void> deleteReviews(int productId) {
-        return Mono.fromRunnable(() -> sendMessage("reviews-out-0", new Event(DELETE, productId, null)))
-                .subscribeOn(publishEventScheduler).then();
+        return eventPublisher.publish("reviews-out-0", new Event<>(DELETE, productId, null));
+    }
+
+    private <T> Mono<Void> createAll(String bindingName, int productId, List<T> items) {
+        List<Mono<Void>> events = new ArrayList<>();
+        for (int from = 0; from < items.size(); from += maxItemsPerEvent) {
+            List<T> chunk = items.subList(from, Math.min(from + maxItemsPerEvent, items.size()));
+            events.add(eventPublisher.publish(bindingName, Event.createAll(productId, new ArrayList<>(chunk))));
+        }
+        return Mono.when(events);
+    }
+
+    private String toQueryValue(List<Integer> productIds) {
+        return productIds.stream().map(String::valueOf).collect(Collectors.joining(","));
     }
 
     private String getErrorMessage(WebClientResponseException ex) {
         try {
-            return mapper.readValue(ex.getResponseBodyAsString(), HttpErrorInfo.class).getMessage();
-        } catch (IOException ioex) {
+            // Decoded by the codec of the content type of the response, the core services answer in JSON or Smile
+            HttpErrorInfo errorInfo = ex.getResponseBodyAs(HttpErrorInfo.class);
+            return errorInfo != null ? errorInfo.getMessage() : ex.getMessage();
+        } catch (RuntimeException decodingError) {
             return ex.getMessage();
         }
     }
 
+    /**
+     * Used inside the downstream policies, so 404 and 422 responses reach the circuit breakers as NotFoundException
+     * and InvalidInputException, which they ignore, instead of being counted as failures of the service.
+     */
     private Throwable handleException(Throwable ex) {
 
         if (!(ex instanceof WebClientResponseException)) {
@@ -189,34 +466,33 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
         return ex;
     }
 
-    private void sendMessage(String bindingName, Event event) {
-        LOG.debug("Sending a {} message to {}", event.getEventType(), bindingName);
-        Message message = MessageBuilder.withPayload(event)
-                .setHeader("partitionKey", event.getKey())
-                .build();
-        streamBridge.send(bindingName, message);
-    }
-
-    private Mono<Health> getHealth(String url){
-        url +="/actuator/health";
-        LOG.debug("Will call the Health API on URL: {}", url);
-        return webClient.get().uri(url)
-                .retrieve().bodyToMono(String.class)
-                .map(r->new Health.Builder().up().build())
-                .onErrorResume(ex->Mono.just(new Health.Builder().down(ex).build()))
-                .log(LOG.getName(),FINE);
+    private Mono<Health> getHealth(WebClient webClient, String url, DownstreamPolicy policy){
+        String healthUrl = url + "/actuator/health";
+        return Mono.defer(() -> {
+            CircuitBreaker.State state = policy.getCircuitBreakerState();
+            if (state == CircuitBreaker.State.OPEN || state == CircuitBreaker.State.FORCED_OPEN) {
+                return Mono.just(new Health.Builder().down().withDetail("circuitBreaker", state).build());
+            }
+
+            LOG.debug("Will call the Health API on URL: {}", healthUrl);
+            return webClient.get().uri(healthUrl)
+                    .retrieve().bodyToMono(String.class)
+                    .map(r -> new Health.Builder().up().withDetail("circuitBreaker", state).build())
+                    .onErrorResume(ex -> Mono.just(new Health.Builder().down(ex).withDetail("circuitBreaker", state).build()))
+                    .log(LOG.getName(), FINE);
+        });
     }
 
     public Mono<Health> getProductHealth() {
-        return getHealth(productServiceUrl);
+        return getHealth(productWebClient, productServiceUrl, productPolicy);
     }
 
     public Mono<Health> getRecommendationHealth() {
-        return getHealth(recommendationServiceUrl);
+        return getHealth(recommendationWebClient, recommendationServiceUrl, recommendationPolicy);
     }
 
     public Mono<Health> getReviewHealth() {
-        return getHealth(reviewServiceUrl);
+        return getHealth(reviewWebClient, reviewServiceUrl, reviewPolicy);
     }
 
 
@@ -4,15 +4,24 @@ import com.aw.micro.api.composite.*;
 import com.aw.micro.api.core.product.Product;
 import com.aw.micro.api.core.recommendation.Recommendation;
 import com.aw.micro.api.core.review.Review;
+import com.aw.micro.api.exceptions.InvalidInputException;
 import com.aw.micro.util.http.ServiceUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
@@ -26,29 +35,168 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
 
     private final ServiceUtil serviceUtil;
     private ProductCompositeIntegration integration;
+    private final ProductAggregateCache cache;
+    private final ObjectMapper mapper;
+    private final int maxBatchSize;
+    private final int maxPageSize;
 
     @Autowired
     public ProductCompositeServiceImpl(
-            ServiceUtil serviceUtil, ProductCompositeIntegration integration) {
+            ServiceUtil serviceUtil, ProductCompositeIntegration integration, ProductAggregateCache cache, ObjectMapper mapper,
+            @Value("${app.product-composite.maxBatchSize:100}") int maxBatchSize,
+            @Value("${app.product-composite.maxPageSize:100}") int maxPageSize,
+            @Value("${app.product-composite.coreMaxPageSize:1000}") int coreMaxPageSize) {
 
         this.serviceUtil = serviceUtil;
         this.integration = integration;
+        this.cache = cache;
+        this.mapper = mapper;
+        this.maxBatchSize = maxBatchSize;
+
+        // A page asks the core services for one element more than its limit, which must stay within their max
+        this.maxPageSize = Math.min(maxPageSize, coreMaxPageSize - 1);
+        if (this.maxPageSize < maxPageSize) {
+            LOG.warn("maxPageSize {} is lowered to {}, one below the maxPageSize of the core services", maxPageSize, this.maxPageSize);
+        }
     }
 
     @Override
-    public Mono<ProductAggregate> getProduct(int productId) {
-        LOG.info("Will get composite product info for product.id={}", productId);
+    public Mono<ProductAggregate> getProduct(int productId, List<String> include) {
+        LOG.info("Will get composite product info for product.id={}, include={}", productId, include);
+
+        AggregateProjection projection = AggregateProjection.of(include);
+        if (projection.isFull()) {
+            return cache.get(productId, () -> getProductAggregate(productId, projection));
+        }
 
+        // A cached full aggregate can serve any projection, otherwise only what is asked for is fetched and it is not cached
+        return cache.getIfPresent(productId)
+                .map(projection::apply)
+                .switchIfEmpty(Mono.defer(() -> getProductAggregate(productId, projection)));
+    }
+
+    private Mono<ProductAggregate> getProductAggregate(int productId, AggregateProjection projection) {
+
+        // Core services that are not needed for the projection are not called at all
+        Mono<List<Recommendation>> recommendations = projection.includesRecommendations()
+                ? integration.getRecommendations(productId, projection.includesContent()).collectList()
+                : Mono.just(Collections.emptyList());
+        Mono<List<Review>> reviews = projection.includesReviews()
+                ? integration.getReviews(productId, projection.includesContent()).collectList()
+                : Mono.just(Collections.emptyList());
 
         return Mono.zip(
                 values->createProductAggregate((Product) values[0],(List<Recommendation>) values[1], (List<Review>) values[2], serviceUtil.getServiceAddress()),
                 integration.getProduct(productId),
-                integration.getRecommendations(productId).collectList(),
-                integration.getReviews(productId).collectList()
-        ).doOnError(ex -> LOG.warn("getCompositeProduct failed: {}", ex.toString()))
+                recommendations,
+                reviews
+        ).map(projection::apply)
+                .doOnError(ex -> LOG.warn("getCompositeProduct failed: {}", ex.toString()))
+                .log(LOG.getName(), Level.FINE);
+    }
+
+    @Override
+    public Flux<ProductAggregatePart> getProductStream(int productId) {
+        LOG.info("Will stream composite product info for product.id={}", productId);
+
+        return integration.getProduct(productId)
+                .flatMapMany(product -> {
+                    ServiceAddresses serviceAddresses = new ServiceAddresses(serviceUtil.getServiceAddress(), product.getServiceAddress(), null, null);
+                    ProductAggregate header = new ProductAggregate(product.getProductId(), product.getName(), product.getWeight(), null, null, serviceAddresses);
+
+                    // Recommendations and reviews are interleaved in the order they arrive, not fetched one after the other.
+                    // The response status is already sent, a failing part ends with a TRUNCATED part instead of an error
+                    return Flux.concat(
+                            Mono.just(ProductAggregatePart.product(header)),
+                            Flux.merge(
+                                    integration.streamRecommendations(productId)
+                                            .map(r -> ProductAggregatePart.recommendation(new RecommendationSummary(r.getRecommendationId(), r.getAuthor(), r.getRate(), r.getContent())))
+                                            .onErrorResume(error -> Mono.just(ProductAggregatePart.truncated("recommendations"))),
+                                    integration.streamReviews(productId)
+                                            .map(r -> ProductAggregatePart.review(new ReviewSummary(r.getReviewId(), r.getAuthor(), r.getSubject(), r.getContent())))
+                                            .onErrorResume(error -> Mono.just(ProductAggregatePart.truncated("reviews")))));
+                })
+                .doOnError(ex -> LOG.warn("getCompositeProductStream failed: {}", ex.toString()))
+                .log(LOG.getName(), Level.FINE);
+    }
+
+    @Override
+    public Flux<ProductAggregate> getProducts(List<Integer> ids) {
+        LOG.info("Will get composite product info for product.ids={}", ids);
+
+        if (ids.isEmpty() || ids.size() > maxBatchSize) {
+            throw new InvalidInputException("Invalid number of product ids: " + ids.size() + ", expected 1 to " + maxBatchSize);
+        }
+        if (ids.stream().anyMatch(id -> id == null || id < 1)) {
+            throw new InvalidInputException("Invalid product ids: " + ids + ", expected positive numbers");
+        }
+        List<Integer> productIds = ids.stream().distinct().collect(Collectors.toList());
+
+        return cache.getAll(productIds, this::getProductAggregates);
+    }
+
+    private Flux<ProductAggregate> getProductAggregates(List<Integer> productIds) {
+
+        // One call per core service for the whole batch, recommendations and reviews are grouped per product afterwards
+        return Mono.zip(
+                        integration.getProducts(productIds).collectList(),
+                        integration.getRecommendations(productIds).collect(Collectors.groupingBy(Recommendation::getProductId)),
+                        integration.getReviews(productIds).collect(Collectors.groupingBy(Review::getProductId)))
+                .flatMapMany(values -> {
+                    String serviceAddress = serviceUtil.getServiceAddress();
+                    Map<Integer, List<Recommendation>> recommendations = values.getT2();
+                    Map<Integer, List<Review>> reviews = values.getT3();
+                    return Flux.fromIterable(values.getT1())
+                            .map(product -> createProductAggregate(product,
+                                    recommendations.getOrDefault(product.getProductId(), Collections.emptyList()),
+                                    reviews.getOrDefault(product.getProductId(), Collections.emptyList()),
+                                    serviceAddress));
+                })
+                .doOnError(ex -> LOG.warn("getCompositeProducts failed: {}", ex.toString()))
+                .log(LOG.getName(), Level.FINE);
+    }
+
+    @Override
+    public Mono<CursorPage<RecommendationSummary>> getRecommendationsPage(int productId, int after, int limit) {
+        LOG.info("Will get a page of recommendations for product.id={}, after={}, limit={}", productId, after, limit);
+        validatePageLimit(limit);
+
+        // One extra element is asked for to know if there is a next page without a count query
+        return integration.getRecommendationsPage(productId, after, limit + 1)
+                .map(r -> new RecommendationSummary(r.getRecommendationId(), r.getAuthor(), r.getRate(), r.getContent()))
+                .collectList()
+                .map(recommendations -> toPage(recommendations, limit, RecommendationSummary::getRecommendationId))
+                .doOnError(ex -> LOG.warn("getCompositeRecommendationsPage failed: {}", ex.toString()))
+                .log(LOG.getName(), Level.FINE);
+    }
+
+    @Override
+    public Mono<CursorPage<ReviewSummary>> getReviewsPage(int productId, int after, int limit) {
+        LOG.info("Will get a page of reviews for product.id={}, after={}, limit={}", productId, after, limit);
+        validatePageLimit(limit);
+
+        return integration.getReviewsPage(productId, after, limit + 1)
+                .map(r -> new ReviewSummary(r.getReviewId(), r.getAuthor(), r.getSubject(), r.getContent()))
+                .collectList()
+                .map(reviews -> toPage(reviews, limit, ReviewSummary::getReviewId))
+                .doOnError(ex -> LOG.warn("getCompositeReviewsPage failed: {}", ex.toString()))
                 .log(LOG.getName(), Level.FINE);
     }
 
+    private void validatePageLimit(int limit) {
+        if (limit < 1 || limit > maxPageSize) {
+            throw new InvalidInputException("Invalid limit: " + limit + ", expected 1 to " + maxPageSize);
+        }
+    }
+
+    private <T> CursorPage<T> toPage(List<T> items, int limit, Function<T, Integer> idOf) {
+        if (items.size() <= limit) {
+            return new CursorPage<>(items, null);
+        }
+        List<T> page = items.subList(0, limit);
+        return new CursorPage<>(page, idOf.apply(page.get(limit - 1)));
+    }
+
     @Override
     public Mono<Void> createProduct(ProductAggregate body) {
 
@@ -60,22 +208,24 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
             Product product =new Product(body.getProductId(), body.getName(), body.getWeight(), null);
             monoList.add(integration.createProduct(product));
 
-            if(body.getRecommendations()!=null){
-                body.getRecommendations().forEach(r->{
-                    Recommendation recommendation = new Recommendation(body.getProductId(), r.getRecommendationId(), r.getAuthor(), r.getRate(), r.getContent(), null);
-                    monoList.add(integration.createRecommendation(recommendation));
-                });
+            // All recommendations and all reviews of the product are sent as CREATE_ALL events, not one event each
+            if (body.getRecommendations() != null && !body.getRecommendations().isEmpty()) {
+                List<Recommendation> recommendations = body.getRecommendations().stream()
+                        .map(r -> new Recommendation(body.getProductId(), r.getRecommendationId(), r.getAuthor(), r.getRate(), r.getContent(), null))
+                        .collect(Collectors.toList());
+                monoList.add(integration.createRecommendations(body.getProductId(), recommendations));
             }
-            if (body.getReviews() != null) {
-                body.getReviews().forEach(r -> {
-                    Review review = new Review(body.getProductId(), r.getReviewId(), r.getAuthor(), r.getSubject(), r.getContent(), null);
-                    monoList.add(integration.createReview(review));
-                });
+            if (body.getReviews() != null && !body.getReviews().isEmpty()) {
+                List<Review> reviews = body.getReviews().stream()
+                        .map(r -> new Review(body.getProductId(), r.getReviewId(), r.getAuthor(), r.getSubject(), r.getContent(), null))
+                        .collect(Collectors.toList());
+                monoList.add(integration.createReviews(body.getProductId(), reviews));
             }
 
             LOG.debug("createCompositeProduct: composite entities created for productId: {}", body.getProductId());
 
-            return Mono.zip(r->"",monoList.toArray(new Mono[0]))
+            // when, not zip: publishes complete empty and zip would cancel the others as soon as the first one completes
+            return Mono.when(monoList)
                     .doOnError((ex -> LOG.warn("createCompositeProduct failed: {}", ex.toString())))
                     .then();
 
@@ -87,13 +237,69 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
 
     }
 
+    @Override
+    public Mono<Void> patchProduct(int productId, Map<String, Object> patch) {
+        LOG.debug("patchCompositeProduct: patches the fields {} of productId: {}", patch.keySet(), productId);
+
+        Product product = toPatch(productId, patch, Product.PATCHABLE_FIELDS, Product.class);
+        product.setProductId(productId);
+        return integration.updateProduct(productId, product, new ArrayList<>(patch.keySet()))
+                .doOnError(ex -> LOG.warn("patchCompositeProduct failed: {}", ex.toString()));
+    }
+
+    @Override
+    public Mono<Void> patchRecommendation(int productId, int recommendationId, Map<String, Object> patch) {
+        LOG.debug("patchCompositeRecommendation: patches the fields {} of recommendation {}/{}", patch.keySet(), productId, recommendationId);
+
+        Recommendation recommendation = toPatch(productId, patch, Recommendation.PATCHABLE_FIELDS, Recommendation.class);
+        recommendation.setProductId(productId);
+        recommendation.setRecommendationId(recommendationId);
+        return integration.updateRecommendation(productId, recommendation, new ArrayList<>(patch.keySet()))
+                .doOnError(ex -> LOG.warn("patchCompositeRecommendation failed: {}", ex.toString()));
+    }
+
+    @Override
+    public Mono<Void> patchReview(int productId, int reviewId, Map<String, Object> patch) {
+        LOG.debug("patchCompositeReview: patches the fields {} of review {}/{}", patch.keySet(), productId, reviewId);
+
+        Review review = toPatch(productId, patch, Review.PATCHABLE_FIELDS, Review.class);
+        review.setProductId(productId);
+        review.setReviewId(reviewId);
+        return integration.updateReview(productId, review, new ArrayList<>(patch.keySet()))
+                .doOnError(ex -> LOG.warn("patchCompositeReview failed: {}", ex.toString()));
+    }
+
+    /**
+     * Validates the patch and returns its values as an object of the type, the ids are set by the caller.
+     */
+    private <T> T toPatch(int productId, Map<String, Object> patch, Set<String> patchableFields, Class<T> type) {
+        if (productId < 1) {
+            throw new InvalidInputException("Invalid productId: " + productId);
+        }
+        if (patch == null || patch.isEmpty()) {
+            throw new InvalidInputException("Empty patch, expected one or more of the fields: " + patchableFields);
+        }
+        List<String> unknownFields = patch.keySet().stream().filter(field -> !patchableFields.contains(field)).collect(Collectors.toList());
+        if (!unknownFields.isEmpty()) {
+            throw new InvalidInputException("Fields can't be patched: " + unknownFields + ", expected one or more of: " + patchableFields);
+        }
+        if (patch.values().stream().anyMatch(Objects::isNull)) {
+            throw new InvalidInputException("Patched fields can't be set to null");
+        }
+
+        try {
+            return mapper.convertValue(patch, type);
+        } catch (IllegalArgumentException iae) {
+            throw new InvalidInputException("Invalid patch: " + iae.getMessage());
+        }
+    }
+
     @Override
     public Mono<Void> deleteProduct(int productId) {
         try{
             LOG.debug("deleteCompositeProduct: Deletes a product aggregate for productId: {}", productId);
 
-            return Mono.zip(
-                            r -> "",
+            return Mono.when(
                             integration.deleteProduct(productId),
                             integration.deleteRecommendation(productId),
                             integration.deleteReviews(productId))
@@ -0,0 +1,64 @@
+package com.aw.micro.product_composite_service.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight execution of downstream calls: concurrent calls for the same key share one in-flight call
+ * and all receive its result. Nothing is kept once the call completes, i.e. there is no caching and no staleness.
+ */
+class RequestCoalescer<K, V> {
+
+    private final boolean enabled;
+    private final ConcurrentMap<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+    private final Counter executed;
+    private final Counter coalesced;
+
+    RequestCoalescer(String service, boolean enabled, MeterRegistry registry) {
+        this.enabled = enabled;
+        this.executed = Counter.builder("integration.coalescer.calls")
+                .tag("service", service)
+                .tag("result", "executed")
+                .description("Downstream calls, by whether they were executed or joined an identical in-flight call")
+                .register(registry);
+        this.coalesced = Counter.builder("integration.coalescer.calls")
+                .tag("service", service)
+                .tag("result", "coalesced")
+                .description("Downstream calls, by whether they were executed or joined an identical in-flight call")
+                .register(registry);
+    }
+
+    Mono<V> execute(K key, Supplier<Mono<V>> call) {
+        if (!enabled) {
+            return Mono.defer(call);
+        }
+
+        return Mono.defer(() -> {
+            Mono<V> existing = inFlight.get(key);
+            if (existing != null) {
+                coalesced.increment();
+                return existing;
+            }
+
+            AtomicReference<Mono<V>> self = new AtomicReference<>();
+            Mono<V> created = Mono.defer(call)
+                    .doFinally(signal -> inFlight.remove(key, self.get()))
+                    .share();
+            self.set(created);
+
+            existing = inFlight.putIfAbsent(key, created);
+            if (existing != null) {
+                coalesced.increment();
+                return existing;
+            }
+            executed.increment();
+            return created;
+        });
+    }
+}
@@ -0,0 +1,71 @@
+package com.aw.micro.product_composite_service.config;
+
+import io.micrometer.core.instrument.Metrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WebClientConfigTest {
+
+	private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+	// A slow endpoint that keeps its connection busy, and one that echoes the Accept header
+	private final DisposableServer server = HttpServer.create()
+			.port(0)
+			.route(routes -> routes
+					.get("/slow", (request, response) -> response.sendString(Mono.delay(Duration.ofMillis(500)).thenReturn("slow")))
+					.get("/accept", (request, response) -> response.sendString(Mono.just(request.requestHeaders().get(HttpHeaders.ACCEPT)))))
+			.bindNow();
+
+	private final WebClientConfig config = new WebClientConfig(Duration.ofSeconds(2), Duration.ofSeconds(30), Duration.ofSeconds(10), true);
+
+	@AfterEach
+	void tearDown() {
+		server.disposeNow();
+	}
+
+	@Test
+	void keepsTheConnectionsOfEachServiceApart() {
+		WebClient product = config.productWebClient(WebClient.builder(), 1, 1, false);
+		WebClient review = config.reviewWebClient(WebClient.builder(), 1, 1, false);
+
+		// One call holds the only product connection, one waits for it and the third finds the queue full
+		Mono<String> busy = get(product, "/slow");
+		Mono<String> waiting = get(product, "/slow");
+		Mono<String> rejected = get(product, "/slow").onErrorReturn("rejected");
+
+		StepVerifier.create(Mono.zip(busy, waiting, rejected, get(review, "/slow")))
+				.expectNextMatches(results -> results.getT1().equals("slow")
+						&& results.getT2().equals("slow")
+						&& results.getT3().equals("rejected")
+						&& results.getT4().equals("slow"))
+				.expectComplete()
+				.verify(TIMEOUT);
+
+		assertThat(Metrics.globalRegistry.find("reactor.netty.connection.provider.total.connections")
+				.tag("name", "product-pool").gauge()).isNotNull();
+	}
+
+	@Test
+	void asksForSmileBeforeJson() {
+		WebClient recommendation = config.recommendationWebClient(WebClient.builder(), 1, 1, false);
+
+		StepVerifier.create(get(recommendation, "/accept"))
+				.expectNext("application/x-jackson-smile, application/json;q=0.9")
+				.expectComplete()
+				.verify(TIMEOUT);
+	}
+
+	private Mono<String> get(WebClient client, String path) {
+		return client.get().uri("http://localhost:" + server.port() + path).retrieve().bodyToMono(String.class);
+	}
+}
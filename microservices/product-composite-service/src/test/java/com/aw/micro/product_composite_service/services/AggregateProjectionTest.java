@@ -0,0 +1,74 @@
+package com.aw.micro.product_composite_service.services;
+
+import com.aw.micro.api.composite.ProductAggregate;
+import com.aw.micro.api.composite.RecommendationSummary;
+import com.aw.micro.api.composite.ReviewSummary;
+import com.aw.micro.api.composite.ServiceAddresses;
+import com.aw.micro.api.exceptions.InvalidInputException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AggregateProjectionTest {
+
+	private final ProductAggregate aggregate = new ProductAggregate(1, "name", 1,
+			List.of(new RecommendationSummary(1, "author", 5, "content")),
+			List.of(new ReviewSummary(1, "author", "subject", "content")),
+			new ServiceAddresses("cmp", "pro", "rev", "rec"));
+
+	@Test
+	void includesEverythingWithoutInclude() {
+		assertThat(AggregateProjection.of(null).isFull()).isTrue();
+		assertThat(AggregateProjection.of(List.of()).apply(aggregate)).isSameAs(aggregate);
+	}
+
+	@Test
+	void includesOnlyTheProduct() {
+		AggregateProjection projection = AggregateProjection.of(List.of("product"));
+
+		ProductAggregate projected = projection.apply(aggregate);
+
+		assertThat(projection.includesRecommendations()).isFalse();
+		assertThat(projection.includesReviews()).isFalse();
+		assertThat(projected.getName()).isEqualTo("name");
+		assertThat(projected.getRecommendations()).isNull();
+		assertThat(projected.getReviews()).isNull();
+		assertThat(projected.getServiceAddresses().getRev()).isNull();
+		assertThat(projected.getServiceAddresses().getRec()).isNull();
+	}
+
+	@Test
+	void stripsTheContentUnlessIncluded() {
+		ProductAggregate projected = AggregateProjection.of(List.of("recommendations", " reviews")).apply(aggregate);
+
+		assertThat(projected.getRecommendations()).singleElement()
+				.satisfies(recommendation -> {
+					assertThat(recommendation.getAuthor()).isEqualTo("author");
+					assertThat(recommendation.getContent()).isNull();
+				});
+		assertThat(projected.getReviews()).singleElement()
+				.satisfies(review -> {
+					assertThat(review.getSubject()).isEqualTo("subject");
+					assertThat(review.getContent()).isNull();
+				});
+	}
+
+	@Test
+	void keepsTheContentOfTheIncludedParts() {
+		ProductAggregate projected = AggregateProjection.of(List.of("reviews", "content")).apply(aggregate);
+
+		assertThat(projected.getRecommendations()).isNull();
+		assertThat(projected.getReviews()).singleElement()
+				.satisfies(review -> assertThat(review.getContent()).isEqualTo("content"));
+		assertThat(projected.getServiceAddresses().getRev()).isEqualTo("rev");
+	}
+
+	@Test
+	void rejectsAnUnknownPart() {
+		assertThatThrownBy(() -> AggregateProjection.of(List.of("price")))
+				.isInstanceOf(InvalidInputException.class);
+	}
+}
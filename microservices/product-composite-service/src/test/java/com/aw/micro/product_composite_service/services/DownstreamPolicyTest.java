@@ -0,0 +1,34 @@
+package com.aw.micro.product_composite_service.services;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+class DownstreamPolicyTest {
+
+	private final DownstreamPolicy policy = new DownstreamPolicy("review", Duration.ofMillis(100), 0, Duration.ofMillis(10),
+			Duration.ofMillis(10), 0.1, 10, false, Duration.ofMillis(20), CircuitBreaker.ofDefaults("review"), new SimpleMeterRegistry());
+
+	@Test
+	void failsAStreamWithoutAFirstElement() {
+		StepVerifier.create(policy.stream(Flux::never))
+				.expectError(TimeoutException.class)
+				.verify(Duration.ofSeconds(5));
+	}
+
+	@Test
+	void doesNotTimeOutASlowReader() {
+		StepVerifier.create(policy.stream(() -> Flux.range(1, 3)), 1)
+				.expectNext(1)
+				.thenAwait(Duration.ofMillis(300))
+				.thenRequest(2)
+				.expectNext(2, 3)
+				.expectComplete()
+				.verify(Duration.ofSeconds(5));
+	}
+}
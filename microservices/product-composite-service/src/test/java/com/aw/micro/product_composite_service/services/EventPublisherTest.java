@@ -0,0 +1,124 @@
+package com.aw.micro.product_composite_service.services;
+
+import com.aw.micro.api.event.Event;
+import com.aw.micro.api.exceptions.ServiceUnavailableException;
+import com.aw.micro.util.messaging.EventFormats;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.messaging.Message;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static com.aw.micro.api.event.Event.Type.CREATE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class EventPublisherTest {
+
+	private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+	private final StreamBridge streamBridge = mock(StreamBridge.class);
+	private final CountDownLatch senderBlocked = new CountDownLatch(1);
+	private final CountDownLatch releaseSender = new CountDownLatch(1);
+	private final List<String> sent = new CopyOnWriteArrayList<>();
+	private EventPublisher publisher;
+
+	@AfterEach
+	void tearDown() {
+		releaseSender.countDown();
+		if (publisher != null) {
+			publisher.stop();
+		}
+	}
+
+	@Test
+	void keepsTheOrderOfEventsThatWaitForRoom() throws Exception {
+		publisher = publisher(Duration.ofSeconds(5));
+		blockSenderOnFirstEvent();
+
+		// One event is being sent, one fills the queue and the others have to wait
+		List<Mono<Void>> results = List.of("a", "b", "c", "d", "e").stream()
+				.map(data -> publisher.publish("products-out-0", new Event<>(CREATE, 1, data)).cache())
+				.toList();
+		results.get(0).subscribe();
+		assertThat(senderBlocked.await(TIMEOUT.toSeconds(), TimeUnit.SECONDS)).isTrue();
+		results.subList(1, results.size()).forEach(Mono::subscribe);
+
+		releaseSender.countDown();
+		results.forEach(result -> result.block(TIMEOUT));
+
+		assertThat(sent).containsExactly("a", "b", "c", "d", "e");
+	}
+
+	@Test
+	void rejectsAnEventThatWaitedTooLong() throws Exception {
+		publisher = publisher(Duration.ofMillis(50));
+		blockSenderOnFirstEvent();
+
+		publisher.publish("products-out-0", new Event<>(CREATE, 1, "a")).subscribe();
+		assertThat(senderBlocked.await(TIMEOUT.toSeconds(), TimeUnit.SECONDS)).isTrue();
+		Mono<Void> queued = publisher.publish("products-out-0", new Event<>(CREATE, 1, "b")).cache();
+		queued.subscribe();
+
+		StepVerifier.create(publisher.publish("products-out-0", new Event<>(CREATE, 1, "c")))
+				.expectError(ServiceUnavailableException.class)
+				.verify(TIMEOUT);
+
+		releaseSender.countDown();
+		queued.block(TIMEOUT);
+		waitUntil(() -> sent.size() == 2);
+		assertThat(sent).containsExactly("a", "b");
+	}
+
+	@Test
+	void needsAtLeastOneSender() {
+		assertThatThrownBy(() -> new EventPublisher(streamBridge, new EventFormats(new ObjectMapper()), new SimpleMeterRegistry(),
+				"application/json", 0, 1, 1, Duration.ofSeconds(1), false, Path.of("unused"),
+				DataSize.ofMegabytes(1), DataSize.ofMegabytes(1), Duration.ofMillis(2)))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	private void blockSenderOnFirstEvent() {
+		when(streamBridge.send(anyString(), any())).thenAnswer(invocation -> {
+			Message<?> message = invocation.getArgument(1);
+			String data = (String) ((Event<?, ?>) message.getPayload()).getData();
+			if (data.equals("a")) {
+				senderBlocked.countDown();
+				releaseSender.await(TIMEOUT.toSeconds(), TimeUnit.SECONDS);
+			}
+			sent.add(data);
+			return true;
+		});
+	}
+
+	// One sender with room for one event in its queue
+	private EventPublisher publisher(Duration offerTimeout) throws IOException {
+		return new EventPublisher(streamBridge, new EventFormats(new ObjectMapper()), new SimpleMeterRegistry(),
+				"application/json", 1, 1, 1, offerTimeout, false, Path.of("unused"),
+				DataSize.ofMegabytes(1), DataSize.ofMegabytes(1), Duration.ofMillis(2));
+	}
+
+	private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TIMEOUT.toNanos();
+		while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+}
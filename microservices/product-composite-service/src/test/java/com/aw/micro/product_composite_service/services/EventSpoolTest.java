@@ -0,0 +1,114 @@
+package com.aw.micro.product_composite_service.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventSpoolTest {
+
+	// Records of these tests take 35 bytes, 7 of them fit in a segment
+	private static final int SEGMENT_SIZE = 256;
+	private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+	@TempDir
+	Path directory;
+
+	private final List<Integer> sent = new CopyOnWriteArrayList<>();
+
+	@Test
+	void sendsAppendedEventsInOrder() throws IOException {
+		EventSpool spool = open((binding, key, payload) -> sent.add(key));
+
+		for (int key = 0; key < 20; key++) {
+			spool.append("products-out-0", key, new byte[20]).block(TIMEOUT);
+		}
+
+		waitUntil(() -> sent.size() == 20);
+		spool.close();
+		assertThat(sent).containsExactlyElementsOf(range(0, 20));
+	}
+
+	@Test
+	void sendsUnsentEventsAfterARestart() throws IOException {
+		EventSpool spool = open((binding, key, payload) -> false);
+		for (int key = 0; key < 10; key++) {
+			spool.append("products-out-0", key, new byte[20]).block(TIMEOUT);
+		}
+		spool.close();
+
+		EventSpool reopened = open((binding, key, payload) -> sent.add(key));
+
+		waitUntil(() -> sent.size() == 10);
+		reopened.close();
+		assertThat(sent).containsExactlyElementsOf(range(0, 10));
+	}
+
+	@Test
+	void resumesAtTheOldestSegmentIfTheCheckpointSegmentIsGone() throws IOException {
+		EventSpool spool = open((binding, key, payload) -> false);
+		for (int key = 0; key < 20; key++) {
+			spool.append("products-out-0", key, new byte[20]).block(TIMEOUT);
+		}
+		spool.close();
+
+		// As if the segment was deleted after a checkpoint that was then lost in a crash
+		Files.delete(directory.resolve(String.format("%020d.segment", 0)));
+		EventSpool reopened = open((binding, key, payload) -> sent.add(key));
+
+		waitUntil(() -> sent.size() == 13);
+		reopened.close();
+		assertThat(sent).containsExactlyElementsOf(range(7, 20));
+	}
+
+	@Test
+	void dropsATornRecordOnRecovery() throws IOException {
+		EventSpool spool = open((binding, key, payload) -> false);
+		for (int key = 0; key < 3; key++) {
+			spool.append("products-out-0", key, new byte[20]).block(TIMEOUT);
+		}
+		spool.close();
+
+		// Corrupt the payload of the last record, its checksum no longer matches
+		Path segment = directory.resolve(String.format("%020d.segment", 0));
+		byte[] content = Files.readAllBytes(segment);
+		content[2 * 35 + 30] = 1;
+		Files.write(segment, content);
+
+		EventSpool reopened = open((binding, key, payload) -> sent.add(key));
+
+		waitUntil(() -> sent.size() == 2);
+		reopened.close();
+		assertThat(sent).containsExactly(0, 1);
+	}
+
+	private EventSpool open(EventSpool.Sender sender) throws IOException {
+		return new EventSpool(directory, SEGMENT_SIZE, 1024 * 1024, Duration.ZERO, sender, new SimpleMeterRegistry());
+	}
+
+	private static List<Integer> range(int from, int to) {
+		return IntStream.range(from, to).boxed().toList();
+	}
+
+	private static void waitUntil(BooleanSupplier condition) {
+		long deadline = System.nanoTime() + TIMEOUT.toNanos();
+		while (!condition.getAsBoolean()) {
+			assertThat(System.nanoTime()).as("waited too long").isLessThan(deadline);
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package com.aw.micro.product_composite_service.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MicroBatcherTest {
+
+	private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+	private final List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+
+	@Test
+	void splitsTheResultOfABatchPerProductId() {
+		// Two values for product 1, one for product 2 and none for product 3
+		MicroBatcher<String> batcher = batcher(productIds -> Flux.just("1:a", "1:b", "2:a"), 10, Duration.ofMillis(20));
+
+		StepVerifier.create(Mono.zip(batcher.load(1), batcher.load(2), batcher.load(3)))
+				.expectNextMatches(results -> results.getT1().equals(List.of("1:a", "1:b"))
+						&& results.getT2().equals(List.of("2:a"))
+						&& results.getT3().isEmpty())
+				.expectComplete()
+				.verify(TIMEOUT);
+
+		assertThat(batches).containsExactly(List.of(1, 2, 3));
+	}
+
+	@Test
+	void sendsEachProductIdOnce() {
+		MicroBatcher<String> batcher = batcher(productIds -> Flux.just("1:a"), 10, Duration.ofMillis(20));
+
+		StepVerifier.create(Mono.zip(batcher.load(1), batcher.load(1)))
+				.expectNextMatches(results -> results.getT1().equals(List.of("1:a")) && results.getT2().equals(List.of("1:a")))
+				.expectComplete()
+				.verify(TIMEOUT);
+
+		assertThat(batches).containsExactly(List.of(1));
+	}
+
+	@Test
+	void sendsAFullBatchWithoutWaitingForTheWindow() {
+		MicroBatcher<String> batcher = batcher(productIds -> Flux.fromIterable(productIds).map(productId -> productId + ":a"),
+				2, Duration.ofMinutes(1));
+
+		StepVerifier.create(Mono.zip(batcher.load(1), batcher.load(2)))
+				.expectNextMatches(results -> results.getT1().equals(List.of("1:a")) && results.getT2().equals(List.of("2:a")))
+				.expectComplete()
+				.verify(TIMEOUT);
+
+		assertThat(batches).containsExactly(List.of(1, 2));
+	}
+
+	@Test
+	void failsAllLookupsOfAFailedBatch() {
+		MicroBatcher<String> batcher = batcher(productIds -> Flux.error(new IllegalStateException("Service is down")),
+				10, Duration.ofMillis(20));
+
+		Mono<String> first = batcher.load(1).map(values -> "loaded").onErrorReturn(IllegalStateException.class, "failed");
+		Mono<String> second = batcher.load(2).map(values -> "loaded").onErrorReturn(IllegalStateException.class, "failed");
+
+		StepVerifier.create(Mono.zip(first, second))
+				.expectNextMatches(results -> results.getT1().equals("failed") && results.getT2().equals("failed"))
+				.expectComplete()
+				.verify(TIMEOUT);
+
+		assertThat(batches).containsExactly(List.of(1, 2));
+	}
+
+	private MicroBatcher<String> batcher(Function<List<Integer>, Flux<String>> call, int maxSize, Duration window) {
+		return new MicroBatcher<>("recommendation", productIds -> {
+			batches.add(productIds);
+			return call.apply(productIds);
+		}, value -> Integer.valueOf(value.substring(0, value.indexOf(':'))), maxSize, window, new SimpleMeterRegistry());
+	}
+}
@@ -0,0 +1,109 @@
+package com.aw.micro.product_composite_service.services;
+
+import com.aw.micro.api.composite.ProductAggregate;
+import com.aw.micro.api.exceptions.NotFoundException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProductAggregateCacheTest {
+
+	private final ProductAggregateCache cache = new ProductAggregateCache(new SimpleMeterRegistry(), true, 100,
+			Duration.ofMinutes(1), Duration.ofMinutes(1));
+
+	@Test
+	void loadsAnAggregateOnce() {
+		AtomicInteger loads = new AtomicInteger();
+
+		for (int i = 0; i < 3; i++) {
+			StepVerifier.create(cache.get(1, () -> Mono.fromSupplier(() -> aggregate(1, loads.incrementAndGet()))))
+					.expectNextMatches(aggregate -> aggregate.getWeight() == 1)
+					.verifyComplete();
+		}
+
+		assertThat(loads).hasValue(1);
+	}
+
+	@Test
+	void reloadsAnInvalidatedAggregate() {
+		cache.get(1, () -> Mono.just(aggregate(1, 1))).block();
+
+		cache.invalidate(1);
+
+		StepVerifier.create(cache.getIfPresent(1)).verifyComplete();
+		StepVerifier.create(cache.get(1, () -> Mono.just(aggregate(1, 2))))
+				.expectNextMatches(aggregate -> aggregate.getWeight() == 2)
+				.verifyComplete();
+		StepVerifier.create(cache.getIfPresent(1))
+				.expectNextMatches(aggregate -> aggregate.getWeight() == 2)
+				.verifyComplete();
+	}
+
+	@Test
+	void cachesNotFound() {
+		cache.get(1, () -> Mono.error(new NotFoundException("No product found for productId: 1")))
+				.onErrorResume(NotFoundException.class, ex -> Mono.empty())
+				.block();
+
+		StepVerifier.create(cache.get(1, () -> Mono.just(aggregate(1, 1))))
+				.expectError(NotFoundException.class)
+				.verify();
+	}
+
+	@Test
+	void dropsALoadThatOverlapsAnInvalidationOfItsProduct() {
+		Sinks.One<ProductAggregate> stale = Sinks.one();
+		Sinks.One<ProductAggregate> other = Sinks.one();
+		Mono<ProductAggregate> staleLoad = cache.get(1, stale::asMono);
+		Mono<ProductAggregate> otherLoad = cache.get(2, other::asMono);
+
+		StepVerifier.create(staleLoad.zipWith(otherLoad))
+				.then(() -> {
+					cache.invalidate(1);
+					stale.tryEmitValue(aggregate(1, 1));
+					other.tryEmitValue(aggregate(2, 1));
+				})
+				.expectNextCount(1)
+				.verifyComplete();
+
+		StepVerifier.create(cache.getIfPresent(1)).verifyComplete();
+		StepVerifier.create(cache.getIfPresent(2)).expectNextCount(1).verifyComplete();
+	}
+
+	@Test
+	void doesNotCacheAPartialAggregate() {
+		Mono<ProductAggregate> partialLoad = PartialResults.fallback().then(Mono.just(aggregate(1, 1)));
+
+		StepVerifier.create(cache.get(1, () -> partialLoad)).expectNextCount(1).verifyComplete();
+
+		StepVerifier.create(cache.getIfPresent(1)).verifyComplete();
+	}
+
+	@Test
+	void doesNotCacheTheAggregatesOfAPartialBatch() {
+		cache.get(1, () -> Mono.just(aggregate(1, 1))).block();
+
+		StepVerifier.create(cache.getAll(List.of(1, 2, 3), misses -> PartialResults.fallback()
+						.thenMany(Flux.fromIterable(misses).map(productId -> aggregate(productId, 1)))))
+				.expectNextMatches(aggregate -> aggregate.getProductId() == 1)
+				.expectNextMatches(aggregate -> aggregate.getProductId() == 2)
+				.expectNextMatches(aggregate -> aggregate.getProductId() == 3)
+				.verifyComplete();
+
+		StepVerifier.create(cache.getIfPresent(2)).verifyComplete();
+		StepVerifier.create(cache.getIfPresent(3)).verifyComplete();
+	}
+
+	private static ProductAggregate aggregate(int productId, int weight) {
+		return new ProductAggregate(productId, "name", weight, List.of(), List.of(), null);
+	}
+}
@@ -0,0 +1,123 @@
+package com.aw.micro.product_composite_service.services;
+
+import com.aw.micro.api.exceptions.InvalidInputException;
+import com.aw.micro.api.exceptions.NotFoundException;
+import com.aw.micro.api.exceptions.ServiceUnavailableException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class ProductCompositeIntegrationTest {
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+	private final CircuitBreaker productBreaker = circuitBreaker("product");
+	private final CircuitBreaker reviewBreaker = circuitBreaker("review");
+
+	@Test
+	void reportsAnOpenProductBreakerAsUnavailable() {
+		productBreaker.transitionToOpenState();
+		ProductCompositeIntegration integration = integration(HttpStatus.OK);
+
+		StepVerifier.create(integration.getProduct(1))
+				.expectError(ServiceUnavailableException.class)
+				.verify(Duration.ofSeconds(5));
+	}
+
+	@Test
+	void clientErrorsDoNotOpenTheBreaker() {
+		ProductCompositeIntegration integration = integration(HttpStatus.NOT_FOUND);
+
+		for (int i = 0; i < 10; i++) {
+			StepVerifier.create(integration.getReviewsPage(1, 0, 10))
+					.expectError(NotFoundException.class)
+					.verify(Duration.ofSeconds(5));
+		}
+
+		assertThat(reviewBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+	}
+
+	@Test
+	void serverErrorsOpenTheBreaker() {
+		ProductCompositeIntegration integration = integration(HttpStatus.INTERNAL_SERVER_ERROR);
+
+		for (int i = 0; i < 10; i++) {
+			StepVerifier.create(integration.getReviewsPage(1, 0, 10))
+					.expectError()
+					.verify(Duration.ofSeconds(5));
+		}
+
+		assertThat(reviewBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+	}
+
+	@Test
+	void marksTheResultPartialWhenReviewsFallBack() {
+		ProductCompositeIntegration integration = integration(HttpStatus.INTERNAL_SERVER_ERROR);
+		AtomicBoolean partial = new AtomicBoolean();
+
+		StepVerifier.create(integration.getReviews(1).contextWrite(context -> PartialResults.track(context, partial)))
+				.verifyComplete();
+
+		assertThat(partial).isTrue();
+	}
+
+	@Test
+	void marksTheResultPartialWhenABatchFails() {
+		ProductCompositeIntegration integration = integration(HttpStatus.INTERNAL_SERVER_ERROR, true);
+		AtomicBoolean recommendationsPartial = new AtomicBoolean();
+		AtomicBoolean reviewsPartial = new AtomicBoolean();
+
+		StepVerifier.create(integration.getRecommendations(1).contextWrite(context -> PartialResults.track(context, recommendationsPartial)))
+				.verifyComplete();
+		StepVerifier.create(integration.getReviews(2).contextWrite(context -> PartialResults.track(context, reviewsPartial)))
+				.verifyComplete();
+
+		assertThat(recommendationsPartial).isTrue();
+		assertThat(reviewsPartial).isTrue();
+	}
+
+	private ProductCompositeIntegration integration(HttpStatus status) {
+		return integration(status, false);
+	}
+
+	private ProductCompositeIntegration integration(HttpStatus status, boolean batching) {
+		WebClient webClient = WebClient.builder()
+				.exchangeFunction(request -> Mono.just(ClientResponse.create(status)
+						.header("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+						.body(status.is2xxSuccessful() ? "{\"productId\":1}" : "{\"message\":\"" + status.getReasonPhrase() + "\"}")
+						.build()))
+				.build();
+
+		return new ProductCompositeIntegration(mock(EventPublisher.class), webClient, webClient, webClient, registry,
+				policy("product", productBreaker), policy("recommendation", circuitBreaker("recommendation")), policy("review", reviewBreaker),
+				false, batching, 50, Duration.ofMillis(2), 500,
+				"localhost", 7001, "localhost", 7002, "localhost", 7003);
+	}
+
+	private DownstreamPolicy policy(String service, CircuitBreaker circuitBreaker) {
+		return new DownstreamPolicy(service, Duration.ofSeconds(2), 0, Duration.ofMillis(10), Duration.ofMillis(10),
+				0.1, 10, false, Duration.ofMillis(20), circuitBreaker, registry);
+	}
+
+	// Same ignored exceptions as the default config in application.yml
+	private static CircuitBreaker circuitBreaker(String name) {
+		return CircuitBreaker.of(name, CircuitBreakerConfig.custom()
+				.slidingWindowSize(4)
+				.minimumNumberOfCalls(2)
+				.ignoreExceptions(InvalidInputException.class, NotFoundException.class)
+				.build());
+	}
+}
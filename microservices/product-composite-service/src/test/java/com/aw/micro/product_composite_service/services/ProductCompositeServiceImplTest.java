@@ -0,0 +1,94 @@
+package com.aw.micro.product_composite_service.services;
+
+import com.aw.micro.api.composite.ProductAggregatePart;
+import com.aw.micro.api.core.product.Product;
+import com.aw.micro.api.core.recommendation.Recommendation;
+import com.aw.micro.api.exceptions.InvalidInputException;
+import com.aw.micro.util.http.ServiceUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class ProductCompositeServiceImplTest {
+
+	private final ProductCompositeIntegration integration = mock(ProductCompositeIntegration.class);
+	private final ProductCompositeServiceImpl service = new ProductCompositeServiceImpl(mock(ServiceUtil.class), integration,
+			new ProductAggregateCache(new SimpleMeterRegistry(), false, 100, Duration.ofSeconds(10), Duration.ofSeconds(5)),
+			new ObjectMapper(), 100, 100, 51);
+
+	@Test
+	void endsAFailedPartOfTheStreamWithATruncatedPart() {
+		when(integration.getProduct(1)).thenReturn(Mono.just(new Product(1, "name", 1, null)));
+		when(integration.streamRecommendations(1)).thenReturn(Flux.just(new Recommendation(1, 1, "author", 1, "content", null))
+				.concatWith(Flux.error(new TimeoutException("Stream stalled"))));
+		when(integration.streamReviews(1)).thenReturn(Flux.empty());
+
+		StepVerifier.create(service.getProductStream(1))
+				.expectNextMatches(part -> part.getType() == ProductAggregatePart.Type.PRODUCT)
+				.expectNextMatches(part -> part.getType() == ProductAggregatePart.Type.RECOMMENDATION)
+				.expectNextMatches(part -> part.getType() == ProductAggregatePart.Type.TRUNCATED
+						&& part.getTruncated().equals("recommendations"))
+				.verifyComplete();
+	}
+
+	@Test
+	void publishesOnlyThePatchedFields() {
+		when(integration.updateReview(eq(1), any(), any())).thenReturn(Mono.empty());
+
+		StepVerifier.create(service.patchReview(1, 2, Map.of("subject", "New subject")))
+				.verifyComplete();
+
+		verify(integration).updateReview(eq(1),
+				argThat(review -> review.getReviewId() == 2 && review.getSubject().equals("New subject") && review.getContent() == null),
+				eq(List.of("subject")));
+	}
+
+	@Test
+	void rejectsInvalidPatches() {
+		Map<String, Object> nullValue = new HashMap<>();
+		nullValue.put("name", null);
+
+		assertThatThrownBy(() -> service.patchProduct(1, Map.of())).isInstanceOf(InvalidInputException.class);
+		assertThatThrownBy(() -> service.patchProduct(1, Map.of("productId", 2))).isInstanceOf(InvalidInputException.class);
+		assertThatThrownBy(() -> service.patchProduct(1, nullValue)).isInstanceOf(InvalidInputException.class);
+		assertThatThrownBy(() -> service.patchProduct(1, Map.of("weight", "heavy"))).isInstanceOf(InvalidInputException.class);
+		assertThatThrownBy(() -> service.patchProduct(0, Map.of("weight", 2))).isInstanceOf(InvalidInputException.class);
+		verifyNoInteractions(integration);
+	}
+
+	@Test
+	void rejectsAMissingProductId() {
+		assertThatThrownBy(() -> service.getProducts(Arrays.asList(1, null)))
+				.isInstanceOf(InvalidInputException.class);
+	}
+
+	@Test
+	void keepsThePageLimitBelowTheMaxOfTheCoreServices() {
+		when(integration.getReviewsPage(1, 0, 51)).thenReturn(Flux.empty());
+
+		StepVerifier.create(service.getReviewsPage(1, 0, 50))
+				.expectNextMatches(page -> page.getItems().isEmpty())
+				.verifyComplete();
+		assertThatThrownBy(() -> service.getReviewsPage(1, 0, 51))
+				.isInstanceOf(InvalidInputException.class);
+	}
+}
@@ -0,0 +1,100 @@
+package com.aw.micro.product_composite_service.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RequestCoalescerTest {
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+	private final AtomicInteger calls = new AtomicInteger();
+
+	@Test
+	void sharesACallInFlightForTheSameKey() {
+		RequestCoalescer<Integer, String> coalescer = new RequestCoalescer<>("product", true, registry);
+		Sinks.One<String> result = Sinks.one();
+
+		Mono<String> first = coalescer.execute(1, () -> call(result.asMono()));
+		Mono<String> second = coalescer.execute(1, () -> call(Mono.just("second")));
+
+		StepVerifier.create(first.zipWith(second))
+				.then(() -> result.tryEmitValue("first"))
+				.expectNextMatches(both -> both.getT1().equals("first") && both.getT2().equals("first"))
+				.verifyComplete();
+
+		assertThat(calls).hasValue(1);
+		assertThat(count("executed")).isEqualTo(1);
+		assertThat(count("coalesced")).isEqualTo(1);
+	}
+
+	@Test
+	void doesNotShareCallsForOtherKeys() {
+		RequestCoalescer<Integer, String> coalescer = new RequestCoalescer<>("product", true, registry);
+		Sinks.One<String> result = Sinks.one();
+
+		StepVerifier.create(coalescer.execute(1, () -> call(result.asMono()))
+						.zipWith(coalescer.execute(2, () -> call(Mono.just("other")))))
+				.then(() -> result.tryEmitValue("first"))
+				.expectNextMatches(both -> both.getT1().equals("first") && both.getT2().equals("other"))
+				.verifyComplete();
+
+		assertThat(calls).hasValue(2);
+	}
+
+	@Test
+	void sharesTheErrorOfACallInFlight() {
+		RequestCoalescer<Integer, String> coalescer = new RequestCoalescer<>("product", true, registry);
+		Sinks.One<String> result = Sinks.one();
+
+		Mono<String> first = coalescer.execute(1, () -> call(result.asMono()));
+		Mono<String> second = coalescer.execute(1, () -> call(Mono.just("second")));
+
+		StepVerifier.create(first.onErrorReturn("failed").zipWith(second.onErrorReturn("failed")))
+				.then(() -> result.tryEmitError(new IllegalStateException("Service is down")))
+				.expectNextMatches(both -> both.getT1().equals("failed") && both.getT2().equals("failed"))
+				.verifyComplete();
+
+		assertThat(calls).hasValue(1);
+	}
+
+	@Test
+	void executesAgainOnceTheCallCompleted() {
+		RequestCoalescer<Integer, String> coalescer = new RequestCoalescer<>("product", true, registry);
+
+		StepVerifier.create(coalescer.execute(1, () -> call(Mono.just("first")))).expectNext("first").verifyComplete();
+		StepVerifier.create(coalescer.execute(1, () -> call(Mono.just("second")))).expectNext("second").verifyComplete();
+
+		assertThat(calls).hasValue(2);
+		assertThat(count("coalesced")).isZero();
+	}
+
+	@Test
+	void executesEveryCallWhenDisabled() {
+		RequestCoalescer<Integer, String> coalescer = new RequestCoalescer<>("product", false, registry);
+		Sinks.One<String> result = Sinks.one();
+
+		StepVerifier.create(coalescer.execute(1, () -> call(result.asMono()))
+						.zipWith(coalescer.execute(1, () -> call(Mono.just("second")))))
+				.then(() -> result.tryEmitValue("first"))
+				.expectNextMatches(both -> both.getT1().equals("first") && both.getT2().equals("second"))
+				.verifyComplete();
+
+		assertThat(calls).hasValue(2);
+	}
+
+	private Mono<String> call(Mono<String> result) {
+		calls.incrementAndGet();
+		return result;
+	}
+
+	private double count(String result) {
+		return registry.get("integration.coalescer.calls").tag("result", result).counter().count();
+	}
+}
@@ -4,56 +4,83 @@ import com.aw.micro.api.core.product.Product;
 import com.aw.micro.api.core.product.ProductService;
 import com.aw.micro.api.event.Event;
 import com.aw.micro.api.exceptions.EventProcessingException;
+import com.aw.micro.product_service.service.ProductBatchWriter;
+import com.aw.micro.util.messaging.DeadLetterReplayEndpoint;
+import com.aw.micro.util.messaging.EventProcessorFactory;
+import com.aw.micro.util.messaging.ReactiveEventProcessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
-import java.util.function.Consumer;
+import java.time.Instant;
+import java.util.List;
+import java.util.function.Function;
 
+import static com.aw.micro.api.event.Event.Type.UPDATE;
+
+/**
+ * The events are processed as a reactive stream, so no binder thread waits for the database. Retries and dead
+ * lettering are done by the {@link ReactiveEventProcessor} with the maxAttempts and backoff of the input binding.
+ * With app.messaging.batch.enabled the events are applied in bulk by the {@link ProductBatchWriter}.
+ */
 @Configuration
 public class MessageProcessorConfig {
 
     private static final Logger LOG= LoggerFactory.getLogger(MessageProcessorConfig.class);
 
     private final ProductService productService;
+    private final ProductBatchWriter batchWriter;
+    private final ReactiveEventProcessor<Integer, Product> eventProcessor;
 
     @Autowired
-    public MessageProcessorConfig(ProductService productService){
+    public MessageProcessorConfig(ProductService productService, ProductBatchWriter batchWriter, EventProcessorFactory eventProcessors){
         this.productService=productService;
+        this.batchWriter = batchWriter;
+        this.eventProcessor = eventProcessors.create(this::processEvent, batchWriter);
     }
 
     @Bean
-    public Consumer<Event<Integer, Product>> messageProcessor(){
-
-        return event ->{
-            LOG.info("Process message created at {}...", event.getEventCreatedAt());
-
-            switch (event.getEventType()){
-                case CREATE:
-                    Product product= event.getData();
-                    LOG.info("Create product with ID: {}",product.getProductId());
-                    productService.createProduct(product).block();
-                    break;
-
-                case DELETE:
-                    int productId = event.getKey();
-                    LOG.info("Delete recommendations with ProductID: {}", productId);
-                    productService.deleteProduct(productId).block();
-                    break;
-
-                default:
-                    String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE or DELETE event";
-                    LOG.warn(errorMessage);
-                    throw new EventProcessingException(errorMessage);
-            }
-
-            LOG.info("Message processing done!");
-
+    public Function<Flux<Message<Event<Integer, Product>>>, Mono<Void>> messageProcessor(){
+        return eventProcessor::process;
+    }
 
-        };
+    @Bean
+    public DeadLetterReplayEndpoint deadLetterReplayEndpoint(EventProcessorFactory eventProcessors, CachingConnectionFactory connectionFactory) {
+        return eventProcessors.replayEndpoint(connectionFactory);
+    }
 
+    private Mono<Void> processEvent(Event<Integer, Product> event) {
+        LOG.debug("Process message created at {}...", Instant.ofEpochMilli(event.getEventCreatedAt()));
+
+        switch (event.getEventType()){
+            case CREATE:
+                Product product = event.getData();
+                LOG.info("Create product with ID: {}", product.getProductId());
+                return productService.createProduct(product).then();
+
+            case UPDATE:
+                LOG.info("Update product fields {} of ProductID: {}", event.getPatchedFields(), event.getKey());
+                return batchWriter.apply(UPDATE, List.of(event))
+                        .flatMap(failed -> failed.isEmpty()
+                                ? Mono.<Void>empty()
+                                : Mono.error(new EventProcessingException("Failed to update the product of productId: " + event.getKey())));
+
+            case DELETE:
+                int productId = event.getKey();
+                LOG.info("Delete product with ProductID: {}", productId);
+                return productService.deleteProduct(productId);
+
+            default:
+                String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE, UPDATE or DELETE event";
+                LOG.warn(errorMessage);
+                return Mono.error(new EventProcessingException(errorMessage));
+        }
     }
 
 }
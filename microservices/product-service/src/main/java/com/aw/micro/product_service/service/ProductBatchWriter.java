@@ -0,0 +1,175 @@
+package com.aw.micro.product_service.service;
+
+import com.aw.micro.api.core.product.Product;
+import com.aw.micro.api.event.Event;
+import com.aw.micro.product_service.persistence.ProductEntity;
+import com.aw.micro.product_service.persistence.ProductRepository;
+import com.aw.micro.util.messaging.BatchEventHandler;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.ReactiveBulkOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Applies batches of product events with one unordered bulk insert, one ordered bulk of $set updates or one deleteMany
+ * per batch. Events rejected by the bulk insert, e.g. duplicate keys, are reported back by their index in the batch.
+ */
+@Component
+public class ProductBatchWriter implements BatchEventHandler<Integer, Product> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProductBatchWriter.class);
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final ProductRepository repository;
+    private final ProductMapper mapper;
+
+    @Autowired
+    public ProductBatchWriter(ReactiveMongoTemplate mongoTemplate, ProductRepository repository, ProductMapper mapper) {
+        this.mongoTemplate = mongoTemplate;
+        this.repository = repository;
+        this.mapper = mapper;
+    }
+
+    @Override
+    public Mono<List<Event<Integer, Product>>> apply(Event.Type eventType, List<Event<Integer, Product>> events) {
+        switch (eventType) {
+            case CREATE:
+                return insertAll(events);
+            case UPDATE:
+                return updateAll(events);
+            case DELETE:
+                return deleteAll(events);
+            default:
+                return Mono.just(events);
+        }
+    }
+
+    private Mono<List<Event<Integer, Product>>> insertAll(List<Event<Integer, Product>> events) {
+        List<Event<Integer, Product>> invalid = events.stream()
+                .filter(event -> event.getData() == null || event.getData().getProductId() < 1)
+                .collect(Collectors.toList());
+        List<Event<Integer, Product>> valid = events.stream()
+                .filter(event -> !invalid.contains(event))
+                .collect(Collectors.toList());
+        if (valid.isEmpty()) {
+            return Mono.just(invalid);
+        }
+
+        List<ProductEntity> entities = valid.stream()
+                .map(event -> {
+                    ProductEntity entity = mapper.apiToEntity(event.getData());
+                    // Bulk inserts bypass the repository, so the version is initialized here
+                    entity.setVersion(0);
+                    return entity;
+                })
+                .collect(Collectors.toList());
+
+        return mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ProductEntity.class)
+                .insert(entities)
+                .execute()
+                .doOnNext(result -> LOG.debug("Bulk inserted {} products", result.getInsertedCount()))
+                .thenReturn(invalid)
+                .onErrorResume(BulkOperationException.class, ex -> Mono.just(failed(invalid, valid, ex.getErrors())))
+                .onErrorResume(MongoBulkWriteException.class, ex -> Mono.just(failed(invalid, valid, ex.getWriteErrors())));
+    }
+
+    private Mono<List<Event<Integer, Product>>> updateAll(List<Event<Integer, Product>> events) {
+        List<Event<Integer, Product>> invalid = events.stream()
+                .filter(event -> !isValidUpdate(event))
+                .collect(Collectors.toList());
+        List<Event<Integer, Product>> valid = events.stream()
+                .filter(event -> !invalid.contains(event))
+                .collect(Collectors.toList());
+        if (valid.isEmpty()) {
+            return Mono.just(invalid);
+        }
+
+        // Ordered, so several updates of the same product are applied in the order of their events
+        ReactiveBulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, ProductEntity.class);
+        valid.forEach(event -> bulk.updateOne(query(where("productId").is(event.getKey())), toUpdate(event)));
+
+        return bulk.execute()
+                .doOnNext(result -> LOG.debug("Bulk updated {} of {} products", result.getModifiedCount(), valid.size()))
+                .thenReturn(invalid)
+                .onErrorResume(BulkOperationException.class, ex -> Mono.just(notApplied(invalid, valid, ex.getErrors())))
+                .onErrorResume(MongoBulkWriteException.class, ex -> Mono.just(notApplied(invalid, valid, ex.getWriteErrors())));
+    }
+
+    private boolean isValidUpdate(Event<Integer, Product> event) {
+        return event.getKey() != null && event.getKey() > 0 && event.getData() != null
+                && event.getPatchedFields() != null && !event.getPatchedFields().isEmpty()
+                && Product.PATCHABLE_FIELDS.containsAll(event.getPatchedFields());
+    }
+
+    /**
+     * $set of the patched fields only, the version is increased like a save through the repository would.
+     */
+    private Update toUpdate(Event<Integer, Product> event) {
+        Product product = event.getData();
+        Update update = new Update().inc("version", 1);
+        for (String field : event.getPatchedFields()) {
+            switch (field) {
+                case "name":
+                    update.set("name", product.getName());
+                    break;
+                case "weight":
+                    update.set("weight", product.getWeight());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Field can't be patched: " + field);
+            }
+        }
+        return update;
+    }
+
+    private Mono<List<Event<Integer, Product>>> deleteAll(List<Event<Integer, Product>> events) {
+        List<Event<Integer, Product>> invalid = events.stream()
+                .filter(event -> event.getKey() == null || event.getKey() < 1)
+                .collect(Collectors.toList());
+        Set<Integer> productIds = events.stream()
+                .filter(event -> !invalid.contains(event))
+                .map(Event::getKey)
+                .collect(Collectors.toSet());
+        if (productIds.isEmpty()) {
+            return Mono.just(invalid);
+        }
+
+        return repository.deleteByProductIdIn(productIds)
+                .doOnNext(count -> LOG.debug("Bulk deleted {} products of {} products", count, productIds.size()))
+                .thenReturn(invalid);
+    }
+
+    private List<Event<Integer, Product>> failed(List<Event<Integer, Product>> invalid, List<Event<Integer, Product>> inserted, List<BulkWriteError> errors) {
+        List<Event<Integer, Product>> failed = new ArrayList<>(invalid);
+        errors.forEach(error -> failed.add(inserted.get(error.getIndex())));
+        LOG.debug("Bulk insert rejected {} of {} products", errors.size(), inserted.size());
+        return failed;
+    }
+
+    /**
+     * An ordered bulk write stops at its first error, the events from there on are not applied.
+     */
+    private List<Event<Integer, Product>> notApplied(List<Event<Integer, Product>> invalid, List<Event<Integer, Product>> updated, List<BulkWriteError> errors) {
+        List<Event<Integer, Product>> failed = new ArrayList<>(invalid);
+        int firstError = errors.isEmpty() ? 0 : errors.get(0).getIndex();
+        failed.addAll(updated.subList(firstError, updated.size()));
+        LOG.debug("Bulk update stopped at {} of {} products", firstError, updated.size());
+        return failed;
+    }
+}
@@ -11,9 +11,12 @@ import com.mongodb.DuplicateKeyException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
 import java.util.logging.Level;
 
 @RestController
@@ -28,11 +31,15 @@ public class ProductServiceImpl implements ProductService {
 
     private final ProductMapper mapper;
 
+    private final int maxBatchSize;
+
     @Autowired
-    public ProductServiceImpl(ServiceUtil serviceUtil, ProductMapper mapper, ProductRepository repository) {
+    public ProductServiceImpl(ServiceUtil serviceUtil, ProductMapper mapper, ProductRepository repository,
+                              @Value("${app.maxBatchSize:1000}") int maxBatchSize) {
         this.mapper = mapper;
         this.repository = repository;
         this.serviceUtil = serviceUtil;
+        this.maxBatchSize = maxBatchSize;
     }
 
     @Override
@@ -65,6 +72,25 @@ public class ProductServiceImpl implements ProductService {
                .map(this::setServiceAddress);
     }
 
+    @Override
+    public Flux<Product> getProducts(List<Integer> productIds) {
+        LOG.debug("/product return the found products for productIds={}", productIds);
+
+        if (productIds.isEmpty() || productIds.size() > maxBatchSize) {
+            throw new InvalidInputException("Invalid number of productIds: " + productIds.size() + ", expected 1 to " + maxBatchSize);
+        }
+        productIds.forEach(productId -> {
+            if (productId == null || productId < 1) {
+                throw new InvalidInputException("Invalid productId: " + productId);
+            }
+        });
+
+        return repository.findByProductIdIn(productIds)
+                .log(LOG.getName(), Level.FINE)
+                .map(mapper::entityToApi)
+                .map(this::setServiceAddress);
+    }
+
     @Override
     public Mono<Void> deleteProduct(int productId){
         if (productId < 1) {
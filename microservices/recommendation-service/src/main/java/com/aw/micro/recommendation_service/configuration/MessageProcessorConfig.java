@@ -4,54 +4,92 @@ import com.aw.micro.api.core.recommendation.Recommendation;
 import com.aw.micro.api.core.recommendation.RecommendationService;
 import com.aw.micro.api.event.Event;
 import com.aw.micro.api.exceptions.EventProcessingException;
+import com.aw.micro.recommendation_service.service.RecommendationBatchWriter;
+import com.aw.micro.util.messaging.DeadLetterReplayEndpoint;
+import com.aw.micro.util.messaging.EventProcessorFactory;
+import com.aw.micro.util.messaging.ReactiveEventProcessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
-import java.util.function.Consumer;
+import java.time.Instant;
+import java.util.List;
+import java.util.function.Function;
 
+import static com.aw.micro.api.event.Event.Type.CREATE_ALL;
+import static com.aw.micro.api.event.Event.Type.UPDATE;
+
+/**
+ * The events are processed as a reactive stream, so no binder thread waits for the database. Retries and dead
+ * lettering are done by the {@link ReactiveEventProcessor} with the maxAttempts and backoff of the input binding.
+ * With app.messaging.batch.enabled the events are applied in bulk by the {@link RecommendationBatchWriter}, which also applies
+ * CREATE_ALL events with one bulk insert when batching is disabled.
+ */
 @Configuration
 public class MessageProcessorConfig {
 
     private static final Logger LOG= LoggerFactory.getLogger(MessageProcessorConfig.class);
 
     private final RecommendationService recommendationService;
+    private final RecommendationBatchWriter batchWriter;
+    private final ReactiveEventProcessor<Integer, Recommendation> eventProcessor;
 
     @Autowired
-    public MessageProcessorConfig(RecommendationService recommendationService){
+    public MessageProcessorConfig(RecommendationService recommendationService, RecommendationBatchWriter batchWriter, EventProcessorFactory eventProcessors){
         this.recommendationService=recommendationService;
+        this.batchWriter = batchWriter;
+        this.eventProcessor = eventProcessors.create(this::processEvent, batchWriter);
     }
 
     @Bean
-    public Consumer<Event<Integer, Recommendation>> messageProcessor(){
-        return event->{
+    public Function<Flux<Message<Event<Integer, Recommendation>>>, Mono<Void>> messageProcessor(){
+        return eventProcessor::process;
+    }
 
+    @Bean
+    public DeadLetterReplayEndpoint deadLetterReplayEndpoint(EventProcessorFactory eventProcessors, CachingConnectionFactory connectionFactory) {
+        return eventProcessors.replayEndpoint(connectionFactory);
+    }
 
-            LOG.info("Process message crated at{}...",event.getEventCreatedAt());
+    private Mono<Void> processEvent(Event<Integer, Recommendation> event) {
+        LOG.debug("Process message created at {}...", Instant.ofEpochMilli(event.getEventCreatedAt()));
 
-            switch (event.getEventType()){
-                case CREATE :
-                    Recommendation recommendation = event.getData();
-                    LOG.info("Create recommendation with ID: {}/{}", recommendation.getProductId(), recommendation.getRecommendationId());
-                    recommendationService.createRecommendation(recommendation).block();//Remove block!!
-                    break;
+        switch (event.getEventType()){
+            case CREATE:
+                Recommendation recommendation = event.getData();
+                LOG.info("Create recommendation with ID: {}/{}", recommendation.getProductId(), recommendation.getRecommendationId());
+                return recommendationService.createRecommendation(recommendation).then();
 
-                case DELETE:
-                    int productId = event.getKey();
-                    LOG.info("Delete recommendations with ProductID: {}", productId);
-                    recommendationService.deleteRecommendation(productId).block();
-                    break;
+            case CREATE_ALL:
+                LOG.info("Create all recommendations with ProductID: {}", event.getKey());
+                return batchWriter.apply(CREATE_ALL, List.of(event))
+                        .flatMap(failed -> failed.isEmpty()
+                                ? Mono.<Void>empty()
+                                : Mono.error(new EventProcessingException("Failed to create the recommendations of productId: " + event.getKey())));
 
-                default:
-                    String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE or DELETE event";
-                    LOG.warn(errorMessage);
-                    throw new EventProcessingException(errorMessage);
-            }
-            LOG.info("Message processing done!");
+            case UPDATE:
+                LOG.info("Update recommendation fields {} of ProductID: {}", event.getPatchedFields(), event.getKey());
+                return batchWriter.apply(UPDATE, List.of(event))
+                        .flatMap(failed -> failed.isEmpty()
+                                ? Mono.<Void>empty()
+                                : Mono.error(new EventProcessingException("Failed to update the recommendation of productId: " + event.getKey())));
 
+            case DELETE:
+                int productId = event.getKey();
+                LOG.info("Delete recommendations with ProductID: {}", productId);
+                return recommendationService.deleteRecommendation(productId);
 
-        };
+            default:
+                String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE, CREATE_ALL, UPDATE or DELETE event";
+                LOG.warn(errorMessage);
+                return Mono.error(new EventProcessingException(errorMessage));
+        }
     }
+
 }
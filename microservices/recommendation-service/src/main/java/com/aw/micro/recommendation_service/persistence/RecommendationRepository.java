@@ -1,8 +1,23 @@
 package com.aw.micro.recommendation_service.persistence;
 
+import org.springframework.data.domain.Limit;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
 
 public interface RecommendationRepository extends ReactiveCrudRepository<RecommendationEntity,String> {
     Flux<RecommendationEntity> findByProductId(int productId);
+
+    @Query(value = "{ 'productId': ?0 }", fields = "{ 'content': 0 }")
+    Flux<RecommendationEntity> findWithoutContentByProductId(int productId);
+
+    Flux<RecommendationEntity> findByProductIdIn(Collection<Integer> productIds);
+
+    // Keyset page, served by the prod-rec-id index on (productId, recommendationId)
+    Flux<RecommendationEntity> findByProductIdAndRecommendationIdGreaterThanOrderByRecommendationIdAsc(int productId, int recommendationId, Limit limit);
+
+    Mono<Long> deleteByProductIdIn(Collection<Integer> productIds);
 }
@@ -0,0 +1,203 @@
+package com.aw.micro.recommendation_service.service;
+
+import com.aw.micro.api.core.recommendation.Recommendation;
+import com.aw.micro.api.event.Event;
+import com.aw.micro.recommendation_service.persistence.RecommendationEntity;
+import com.aw.micro.recommendation_service.persistence.RecommendationRepository;
+import com.aw.micro.util.messaging.BatchEventHandler;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.ReactiveBulkOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Applies batches of recommendation events with one unordered bulk insert, one ordered bulk of $set updates or one
+ * deleteMany per batch.
+ * Events rejected by the bulk insert, e.g. duplicate keys, are reported back by their index in the batch.
+ * All recommendations of a CREATE_ALL event are part of the same bulk insert.
+ */
+@Component
+public class RecommendationBatchWriter implements BatchEventHandler<Integer, Recommendation> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RecommendationBatchWriter.class);
+
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final RecommendationRepository repository;
+    private final RecommendationMapper mapper;
+
+    @Autowired
+    public RecommendationBatchWriter(ReactiveMongoTemplate mongoTemplate, RecommendationRepository repository, RecommendationMapper mapper) {
+        this.mongoTemplate = mongoTemplate;
+        this.repository = repository;
+        this.mapper = mapper;
+    }
+
+    @Override
+    public Mono<List<Event<Integer, Recommendation>>> apply(Event.Type eventType, List<Event<Integer, Recommendation>> events) {
+        switch (eventType) {
+            case CREATE:
+                return insertAll(events, event -> Collections.singletonList(event.getData()), false);
+            case CREATE_ALL:
+                // A CREATE_ALL that is retried after a partial insert finds part of its items already there
+                return insertAll(events, Event::getItems, true);
+            case UPDATE:
+                return updateAll(events);
+            case DELETE:
+                return deleteAll(events);
+            default:
+                return Mono.just(events);
+        }
+    }
+
+    private Mono<List<Event<Integer, Recommendation>>> insertAll(List<Event<Integer, Recommendation>> events,
+                                                                 Function<Event<Integer, Recommendation>, List<Recommendation>> recommendationsOf,
+                                                                 boolean ignoreDuplicates) {
+        List<Event<Integer, Recommendation>> invalid = events.stream()
+                .filter(event -> !isValid(recommendationsOf.apply(event)))
+                .collect(Collectors.toList());
+
+        // The event of each entity, to map the errors of the bulk insert back to events
+        List<Event<Integer, Recommendation>> owners = new ArrayList<>();
+        List<RecommendationEntity> entities = new ArrayList<>();
+        events.stream()
+                .filter(event -> !invalid.contains(event))
+                .forEach(event -> recommendationsOf.apply(event).forEach(recommendation -> {
+                    RecommendationEntity entity = mapper.apiToEntity(recommendation);
+                    // Bulk inserts bypass the repository, so the version is initialized here
+                    entity.setVersion(0);
+                    entities.add(entity);
+                    owners.add(event);
+                }));
+        if (entities.isEmpty()) {
+            return Mono.just(invalid);
+        }
+
+        return mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, RecommendationEntity.class)
+                .insert(entities)
+                .execute()
+                .doOnNext(result -> LOG.debug("Bulk inserted {} recommendations", result.getInsertedCount()))
+                .thenReturn(invalid)
+                .onErrorResume(BulkOperationException.class, ex -> Mono.just(failed(invalid, owners, ex.getErrors(), ignoreDuplicates)))
+                .onErrorResume(MongoBulkWriteException.class, ex -> Mono.just(failed(invalid, owners, ex.getWriteErrors(), ignoreDuplicates)));
+    }
+
+    private boolean isValid(List<Recommendation> recommendations) {
+        return recommendations != null && !recommendations.isEmpty()
+                && recommendations.stream().allMatch(recommendation -> recommendation != null && recommendation.getProductId() > 0);
+    }
+
+    private Mono<List<Event<Integer, Recommendation>>> updateAll(List<Event<Integer, Recommendation>> events) {
+        List<Event<Integer, Recommendation>> invalid = events.stream()
+                .filter(event -> !isValidUpdate(event))
+                .collect(Collectors.toList());
+        List<Event<Integer, Recommendation>> valid = events.stream()
+                .filter(event -> !invalid.contains(event))
+                .collect(Collectors.toList());
+        if (valid.isEmpty()) {
+            return Mono.just(invalid);
+        }
+
+        // Ordered, so several updates of the same recommendation are applied in the order of their events
+        ReactiveBulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, RecommendationEntity.class);
+        valid.forEach(event -> bulk.updateOne(
+                query(where("productId").is(event.getKey()).and("recommendationId").is(event.getData().getRecommendationId())),
+                toUpdate(event)));
+
+        return bulk.execute()
+                .doOnNext(result -> LOG.debug("Bulk updated {} of {} recommendations", result.getModifiedCount(), valid.size()))
+                .thenReturn(invalid)
+                .onErrorResume(BulkOperationException.class, ex -> Mono.just(notApplied(invalid, valid, ex.getErrors())))
+                .onErrorResume(MongoBulkWriteException.class, ex -> Mono.just(notApplied(invalid, valid, ex.getWriteErrors())));
+    }
+
+    private boolean isValidUpdate(Event<Integer, Recommendation> event) {
+        return event.getKey() != null && event.getKey() > 0 && event.getData() != null
+                && event.getPatchedFields() != null && !event.getPatchedFields().isEmpty()
+                && Recommendation.PATCHABLE_FIELDS.containsAll(event.getPatchedFields());
+    }
+
+    /**
+     * $set of the patched fields only, the version is increased like a save through the repository would.
+     */
+    private Update toUpdate(Event<Integer, Recommendation> event) {
+        Recommendation recommendation = event.getData();
+        Update update = new Update().inc("version", 1);
+        for (String field : event.getPatchedFields()) {
+            switch (field) {
+                case "author":
+                    update.set("author", recommendation.getAuthor());
+                    break;
+                case "rate":
+                    update.set("rating", recommendation.getRate());
+                    break;
+                case "content":
+                    update.set("content", recommendation.getContent());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Field can't be patched: " + field);
+            }
+        }
+        return update;
+    }
+
+    private Mono<List<Event<Integer, Recommendation>>> deleteAll(List<Event<Integer, Recommendation>> events) {
+        List<Event<Integer, Recommendation>> invalid = events.stream()
+                .filter(event -> event.getKey() == null || event.getKey() < 1)
+                .collect(Collectors.toList());
+        Set<Integer> productIds = events.stream()
+                .filter(event -> !invalid.contains(event))
+                .map(Event::getKey)
+                .collect(Collectors.toSet());
+        if (productIds.isEmpty()) {
+            return Mono.just(invalid);
+        }
+
+        return repository.deleteByProductIdIn(productIds)
+                .doOnNext(count -> LOG.debug("Bulk deleted {} recommendations of {} products", count, productIds.size()))
+                .thenReturn(invalid);
+    }
+
+    private List<Event<Integer, Recommendation>> failed(List<Event<Integer, Recommendation>> invalid, List<Event<Integer, Recommendation>> owners,
+                                                        List<BulkWriteError> errors, boolean ignoreDuplicates) {
+        List<Event<Integer, Recommendation>> failed = new ArrayList<>(invalid);
+        errors.stream()
+                .filter(error -> !(ignoreDuplicates && error.getCode() == DUPLICATE_KEY))
+                .map(error -> owners.get(error.getIndex()))
+                .distinct()
+                .forEach(failed::add);
+        LOG.debug("Bulk insert rejected {} of {} recommendations", errors.size(), owners.size());
+        return failed;
+    }
+
+    /**
+     * An ordered bulk write stops at its first error, the events from there on are not applied.
+     */
+    private List<Event<Integer, Recommendation>> notApplied(List<Event<Integer, Recommendation>> invalid, List<Event<Integer, Recommendation>> updated,
+                                                            List<BulkWriteError> errors) {
+        List<Event<Integer, Recommendation>> failed = new ArrayList<>(invalid);
+        int firstError = errors.isEmpty() ? 0 : errors.get(0).getIndex();
+        failed.addAll(updated.subList(firstError, updated.size()));
+        LOG.debug("Bulk update stopped at {} of {} recommendations", firstError, updated.size());
+        return failed;
+    }
+}
@@ -10,11 +10,14 @@ import com.mongodb.DuplicateKeyException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 
+import java.util.List;
 import java.util.logging.Level;
 
 @RestController
@@ -25,23 +28,29 @@ public class RecommendationServiceImpl implements RecommendationService {
   private final ServiceUtil serviceUtil;
   private final RecommendationMapper mapper;
   private final RecommendationRepository repository;
+  private final int maxPageSize;
+  private final int maxBatchSize;
 
   @Autowired
-  public RecommendationServiceImpl(ServiceUtil serviceUtil,RecommendationMapper mapper,RecommendationRepository repository) {
+  public RecommendationServiceImpl(ServiceUtil serviceUtil,RecommendationMapper mapper,RecommendationRepository repository,
+                                   @Value("${app.maxPageSize:1000}") int maxPageSize,
+                                   @Value("${app.maxBatchSize:1000}") int maxBatchSize) {
     this.serviceUtil = serviceUtil;
     this.mapper=mapper;
     this.repository=repository;
+    this.maxPageSize=maxPageSize;
+    this.maxBatchSize=maxBatchSize;
   }
 
   @Override
-  public Flux<Recommendation> getRecommendations(int productId) {
+  public Flux<Recommendation> getRecommendations(int productId, boolean includeContent) {
 
     if (productId < 1) {
       throw new InvalidInputException("Invalid productId: " + productId);
     }
-    LOG.info("Will get recommendations for product with id={}", productId);
+    LOG.info("Will get recommendations for product with id={}, includeContent={}", productId, includeContent);
 
-    return repository.findByProductId(productId)
+    return (includeContent ? repository.findByProductId(productId) : repository.findWithoutContentByProductId(productId))
             .log(LOG.getName(), Level.FINE)
             .map(mapper::entityToApi)
             .map(this::setServiceAddress);
@@ -49,6 +58,42 @@ public class RecommendationServiceImpl implements RecommendationService {
 
   }
 
+  @Override
+  public Flux<Recommendation> getRecommendationsPage(int productId, int after, int limit) {
+
+    if (productId < 1) {
+      throw new InvalidInputException("Invalid productId: " + productId);
+    }
+    if (limit < 1 || limit > maxPageSize) {
+      throw new InvalidInputException("Invalid limit: " + limit + ", expected 1 to " + maxPageSize);
+    }
+    LOG.info("Will get a page of recommendations for product with id={}, after={}, limit={}", productId, after, limit);
+
+    return repository.findByProductIdAndRecommendationIdGreaterThanOrderByRecommendationIdAsc(productId, after, Limit.of(limit))
+            .log(LOG.getName(), Level.FINE)
+            .map(mapper::entityToApi)
+            .map(this::setServiceAddress);
+  }
+
+  @Override
+  public Flux<Recommendation> getRecommendations(List<Integer> productIds) {
+
+    if (productIds.isEmpty() || productIds.size() > maxBatchSize) {
+      throw new InvalidInputException("Invalid number of productIds: " + productIds.size() + ", expected 1 to " + maxBatchSize);
+    }
+    productIds.forEach(productId -> {
+      if (productId == null || productId < 1) {
+        throw new InvalidInputException("Invalid productId: " + productId);
+      }
+    });
+    LOG.info("Will get recommendations for products with ids={}", productIds);
+
+    return repository.findByProductIdIn(productIds)
+            .log(LOG.getName(), Level.FINE)
+            .map(mapper::entityToApi)
+            .map(this::setServiceAddress);
+  }
+
   @Override
   public Mono<Recommendation> createRecommendation(Recommendation body) {
     if (body.getProductId() < 1) {
@@ -4,56 +4,92 @@ import com.aw.micro.api.core.review.Review;
 import com.aw.micro.api.core.review.ReviewService;
 import com.aw.micro.api.event.Event;
 import com.aw.micro.api.exceptions.EventProcessingException;
+import com.aw.micro.review_service.services.ReviewBatchWriter;
+import com.aw.micro.util.messaging.DeadLetterReplayEndpoint;
+import com.aw.micro.util.messaging.EventProcessorFactory;
+import com.aw.micro.util.messaging.ReactiveEventProcessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-
-import java.util.function.Consumer;
-
+import org.springframework.messaging.Message;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.function.Function;
+
+import static com.aw.micro.api.event.Event.Type.CREATE_ALL;
+import static com.aw.micro.api.event.Event.Type.UPDATE;
+
+/**
+ * The events are processed as a reactive stream, so no binder thread waits for the database. Retries and dead
+ * lettering are done by the {@link ReactiveEventProcessor} with the maxAttempts and backoff of the input binding.
+ * With app.messaging.batch.enabled the events are applied in bulk by the {@link ReviewBatchWriter}, which also applies
+ * CREATE_ALL events with one bulk insert when batching is disabled.
+ */
 @Configuration
 public class MessageProcessorConfig {
 
     private static final Logger LOG= LoggerFactory.getLogger(MessageProcessorConfig.class);
 
     private final ReviewService reviewService;
+    private final ReviewBatchWriter batchWriter;
+    private final ReactiveEventProcessor<Integer, Review> eventProcessor;
 
     @Autowired
-    public MessageProcessorConfig(ReviewService reviewService){
+    public MessageProcessorConfig(ReviewService reviewService, ReviewBatchWriter batchWriter, EventProcessorFactory eventProcessors){
         this.reviewService=reviewService;
+        this.batchWriter = batchWriter;
+        this.eventProcessor = eventProcessors.create(this::processEvent, batchWriter);
     }
 
     @Bean
-    public Consumer<Event<Integer, Review>> messageProcessor(){
-
-
-        return event->{
-            LOG.info("Process message created at {}...", event.getEventCreatedAt());
-
-            switch (event.getEventType()) {
-
-                case CREATE:
-                    Review review = event.getData();
-                    LOG.info("Create review with ID: {}/{}", review.getProductId(), review.getReviewId());
-                    reviewService.createReview(review).block();//Remove block!!! page 213
-                    break;
-
-                case DELETE:
-                    int productId = event.getKey();
-                    LOG.info("Delete reviews with ProductID: {}", productId);
-                    reviewService.deleteReviews(productId).block();//Remove block!!!
-                    break;
-
-                default:
-                    String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE or DELETE event";
-                    LOG.warn(errorMessage);
-                    throw new EventProcessingException(errorMessage);
-            }
+    public Function<Flux<Message<Event<Integer, Review>>>, Mono<Void>> messageProcessor(){
+        return eventProcessor::process;
+    }
 
-            LOG.info("Message processing done!");
-        };
+    @Bean
+    public DeadLetterReplayEndpoint deadLetterReplayEndpoint(EventProcessorFactory eventProcessors, CachingConnectionFactory connectionFactory) {
+        return eventProcessors.replayEndpoint(connectionFactory);
+    }
 
+    private Mono<Void> processEvent(Event<Integer, Review> event) {
+        LOG.debug("Process message created at {}...", Instant.ofEpochMilli(event.getEventCreatedAt()));
+
+        switch (event.getEventType()){
+            case CREATE:
+                Review review = event.getData();
+                LOG.info("Create review with ID: {}/{}", review.getProductId(), review.getReviewId());
+                return reviewService.createReview(review).then();
+
+            case CREATE_ALL:
+                LOG.info("Create all reviews with ProductID: {}", event.getKey());
+                return batchWriter.apply(CREATE_ALL, List.of(event))
+                        .flatMap(failed -> failed.isEmpty()
+                                ? Mono.<Void>empty()
+                                : Mono.error(new EventProcessingException("Failed to create the reviews of productId: " + event.getKey())));
+
+            case UPDATE:
+                LOG.info("Update review fields {} of ProductID: {}", event.getPatchedFields(), event.getKey());
+                return batchWriter.apply(UPDATE, List.of(event))
+                        .flatMap(failed -> failed.isEmpty()
+                                ? Mono.<Void>empty()
+                                : Mono.error(new EventProcessingException("Failed to update the review of productId: " + event.getKey())));
+
+            case DELETE:
+                int productId = event.getKey();
+                LOG.info("Delete reviews with ProductID: {}", productId);
+                return reviewService.deleteReviews(productId);
+
+            default:
+                String errorMessage = "Incorrect event type: " + event.getEventType() + ", expected a CREATE, CREATE_ALL, UPDATE or DELETE event";
+                LOG.warn(errorMessage);
+                return Mono.error(new EventProcessingException(errorMessage));
+        }
     }
 
 }
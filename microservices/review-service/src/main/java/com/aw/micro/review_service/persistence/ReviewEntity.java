@@ -1,8 +1,11 @@
 package com.aw.micro.review_service.persistence;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.DynamicUpdate;
 
+// Updates only set the changed columns, an UPDATE event that patches the subject doesn't rewrite the content
 @Entity
+@DynamicUpdate
 @Table(name = "reviews", indexes = { @Index(name = "reviews_unique_idx", unique = true, columnList = "productId,reviewId") })
 public class ReviewEntity {
 
@@ -1,9 +1,15 @@
 package com.aw.micro.review_service.persistence;
 
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 public interface ReviewRepository extends CrudRepository<ReviewEntity, Integer> {
 
@@ -11,4 +17,25 @@ public interface ReviewRepository extends CrudRepository<ReviewEntity, Integer>
     @Transactional(readOnly = true)
     List<ReviewEntity> findByProductId(int productId);
 
+    @Transactional(readOnly = true)
+    @Query("select new com.aw.micro.review_service.persistence.ReviewSummaryView(r.productId, r.reviewId, r.author, r.subject) "
+            + "from ReviewEntity r where r.productId = :productId")
+    List<ReviewSummaryView> findSummariesByProductId(@Param("productId") int productId);
+
+    @Transactional(readOnly = true)
+    Optional<ReviewEntity> findByProductIdAndReviewId(int productId, int reviewId);
+
+    @Transactional(readOnly = true)
+    List<ReviewEntity> findByProductIdIn(Collection<Integer> productIds);
+
+    // Keyset page, served by the reviews_unique_idx index on (productId, reviewId)
+    @Transactional(readOnly = true)
+    List<ReviewEntity> findByProductIdAndReviewIdGreaterThanOrderByReviewIdAsc(int productId, int reviewId, Limit limit);
+
+    // One delete statement for all products, instead of loading and deleting the reviews one by one
+    @Transactional
+    @Modifying
+    @Query("delete from ReviewEntity r where r.productId in :productIds")
+    int deleteByProductIdIn(@Param("productIds") Collection<Integer> productIds);
+
 }
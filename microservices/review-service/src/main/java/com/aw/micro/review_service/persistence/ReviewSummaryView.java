@@ -0,0 +1,35 @@
+package com.aw.micro.review_service.persistence;
+
+/**
+ * Read-only DTO projection of a review without its content, so the content column is never loaded.
+ */
+public class ReviewSummaryView {
+
+    private final int productId;
+    private final int reviewId;
+    private final String author;
+    private final String subject;
+
+    public ReviewSummaryView(int productId, int reviewId, String author, String subject) {
+        this.productId = productId;
+        this.reviewId = reviewId;
+        this.author = author;
+        this.subject = subject;
+    }
+
+    public int getProductId() {
+        return productId;
+    }
+
+    public int getReviewId() {
+        return reviewId;
+    }
+
+    public String getAuthor() {
+        return author;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+}
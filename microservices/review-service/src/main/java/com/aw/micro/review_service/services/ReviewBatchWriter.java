@@ -0,0 +1,168 @@
+package com.aw.micro.review_service.services;
+
+import com.aw.micro.api.core.review.Review;
+import com.aw.micro.api.event.Event;
+import com.aw.micro.review_service.persistence.ReviewEntity;
+import com.aw.micro.review_service.persistence.ReviewRepository;
+import com.aw.micro.util.messaging.BatchEventHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Applies batches of review events. Inserts are written with JDBC batched inserts and deletes with one bulk delete,
+ * each in one transaction. Updates are saved review by review, each in a transaction of its own.
+ * <p>
+ * A failing insert rolls back the whole batch, all of its events are then processed one by one again so only the
+ * offending ones end up in the dead letter queue. All reviews of a CREATE_ALL event are part of the same batch, so
+ * such an event is applied completely or not at all. A failing update only returns itself and the updates after it,
+ * the ones before it stay applied.
+ */
+@Component
+public class ReviewBatchWriter implements BatchEventHandler<Integer, Review> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReviewBatchWriter.class);
+
+    private final ReviewRepository repository;
+    private final ReviewMapper mapper;
+    private final Scheduler jdbcScheduler;
+
+    @Autowired
+    public ReviewBatchWriter(@Qualifier("jdbcSchedular") Scheduler jdbcScheduler, ReviewRepository repository, ReviewMapper mapper) {
+        this.jdbcScheduler = jdbcScheduler;
+        this.repository = repository;
+        this.mapper = mapper;
+    }
+
+    @Override
+    public Mono<List<Event<Integer, Review>>> apply(Event.Type eventType, List<Event<Integer, Review>> events) {
+        switch (eventType) {
+            case CREATE:
+                return Mono.fromCallable(() -> internalInsertAll(events, event -> Collections.singletonList(event.getData())))
+                        .subscribeOn(jdbcScheduler);
+            case CREATE_ALL:
+                return Mono.fromCallable(() -> internalInsertAll(events, Event::getItems)).subscribeOn(jdbcScheduler);
+            case UPDATE:
+                return Mono.fromCallable(() -> internalUpdateAll(events)).subscribeOn(jdbcScheduler);
+            case DELETE:
+                return Mono.fromCallable(() -> internalDeleteAll(events)).subscribeOn(jdbcScheduler);
+            default:
+                return Mono.just(events);
+        }
+    }
+
+    private List<Event<Integer, Review>> internalInsertAll(List<Event<Integer, Review>> events,
+                                                           Function<Event<Integer, Review>, List<Review>> reviewsOf) {
+        List<Event<Integer, Review>> invalid = events.stream()
+                .filter(event -> !isValid(reviewsOf.apply(event)))
+                .collect(Collectors.toList());
+        List<ReviewEntity> entities = events.stream()
+                .filter(event -> !invalid.contains(event))
+                .flatMap(event -> reviewsOf.apply(event).stream())
+                .map(mapper::apiToEntity)
+                .collect(Collectors.toList());
+        if (entities.isEmpty()) {
+            return invalid;
+        }
+
+        try {
+            repository.saveAll(entities);
+            LOG.debug("Batch inserted {} reviews", entities.size());
+            return invalid;
+
+        } catch (DataIntegrityViolationException dive) {
+            LOG.debug("Batch insert of {} reviews was rolled back: {}", entities.size(), dive.toString());
+            return events;
+        }
+    }
+
+    /**
+     * Updates the reviews one by one. The save checks the version read with the review, a concurrent change fails the
+     * event and it is retried with a fresh read. Once an event failed the following ones are not applied either, so
+     * updates of the same review are never applied out of order.
+     */
+    private List<Event<Integer, Review>> internalUpdateAll(List<Event<Integer, Review>> events) {
+        List<Event<Integer, Review>> failed = new ArrayList<>();
+        for (Event<Integer, Review> event : events) {
+            if (!failed.isEmpty() || !isValidUpdate(event)) {
+                failed.add(event);
+                continue;
+            }
+
+            Optional<ReviewEntity> found = repository.findByProductIdAndReviewId(event.getKey(), event.getData().getReviewId());
+            if (found.isEmpty()) {
+                LOG.warn("No review {}/{} to update, skipping the update", event.getKey(), event.getData().getReviewId());
+                continue;
+            }
+
+            ReviewEntity entity = found.get();
+            Review review = event.getData();
+            for (String field : event.getPatchedFields()) {
+                switch (field) {
+                    case "author":
+                        entity.setAuthor(review.getAuthor());
+                        break;
+                    case "subject":
+                        entity.setSubject(review.getSubject());
+                        break;
+                    case "content":
+                        entity.setContent(review.getContent());
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Field can't be patched: " + field);
+                }
+            }
+
+            try {
+                repository.save(entity);
+            } catch (OptimisticLockingFailureException olfe) {
+                LOG.debug("Review {}/{} was changed concurrently: {}", event.getKey(), review.getReviewId(), olfe.toString());
+                failed.add(event);
+            }
+        }
+        LOG.debug("Updated {} of {} reviews", events.size() - failed.size(), events.size());
+        return failed;
+    }
+
+    private boolean isValidUpdate(Event<Integer, Review> event) {
+        return event.getKey() != null && event.getKey() > 0 && event.getData() != null
+                && event.getPatchedFields() != null && !event.getPatchedFields().isEmpty()
+                && Review.PATCHABLE_FIELDS.containsAll(event.getPatchedFields());
+    }
+
+    private boolean isValid(List<Review> reviews) {
+        return reviews != null && !reviews.isEmpty()
+                && reviews.stream().allMatch(review -> review != null && review.getProductId() > 0);
+    }
+
+    private List<Event<Integer, Review>> internalDeleteAll(List<Event<Integer, Review>> events) {
+        List<Event<Integer, Review>> invalid = events.stream()
+                .filter(event -> event.getKey() == null || event.getKey() < 1)
+                .collect(Collectors.toList());
+        Set<Integer> productIds = events.stream()
+                .filter(event -> !invalid.contains(event))
+                .map(Event::getKey)
+                .collect(Collectors.toSet());
+        if (productIds.isEmpty()) {
+            return invalid;
+        }
+
+        int count = repository.deleteByProductIdIn(productIds);
+        LOG.debug("Bulk deleted {} reviews of {} products", count, productIds.size());
+        return invalid;
+    }
+}
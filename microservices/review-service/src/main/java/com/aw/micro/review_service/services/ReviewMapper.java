@@ -2,6 +2,7 @@ package com.aw.micro.review_service.services;
 
 import com.aw.micro.api.core.review.Review;
 import com.aw.micro.review_service.persistence.ReviewEntity;
+import com.aw.micro.review_service.persistence.ReviewSummaryView;
 import org.mapstruct.Mapper;
 import org.mapstruct.Mapping;
 import org.mapstruct.Mappings;
@@ -24,6 +25,14 @@ public interface ReviewMapper {
 
     List<Review> entityListToApiList(List<ReviewEntity> entity);
 
+    @Mappings({
+            @Mapping(target = "content", ignore = true),
+            @Mapping(target = "serviceAddress", ignore = true)
+    })
+    Review summaryToApi(ReviewSummaryView summary);
+
+    List<Review> summaryListToApiList(List<ReviewSummaryView> summaries);
+
     List<ReviewEntity> apiListToEntityList(List<Review> api);
 
 }
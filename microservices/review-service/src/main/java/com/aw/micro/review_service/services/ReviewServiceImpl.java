@@ -5,11 +5,14 @@ import com.aw.micro.api.core.review.ReviewService;
 import com.aw.micro.api.exceptions.InvalidInputException;
 import com.aw.micro.review_service.persistence.ReviewEntity;
 import com.aw.micro.review_service.persistence.ReviewRepository;
+import com.aw.micro.review_service.persistence.ReviewSummaryView;
 import com.aw.micro.util.http.ServiceUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
@@ -29,26 +32,32 @@ public class ReviewServiceImpl implements ReviewService {
     private final ReviewMapper mapper;
     private final ReviewRepository repository;
     private final Scheduler jdbcScheduler;
+    private final int maxPageSize;
+    private final int maxBatchSize;
 
 
     @Autowired
-    public ReviewServiceImpl(@Qualifier("jdbcSchedular") Scheduler jdbcScheduler, ServiceUtil serviceUtil, ReviewMapper mapper, ReviewRepository repository) {
+    public ReviewServiceImpl(@Qualifier("jdbcSchedular") Scheduler jdbcScheduler, ServiceUtil serviceUtil, ReviewMapper mapper, ReviewRepository repository,
+                             @Value("${app.maxPageSize:1000}") int maxPageSize,
+                             @Value("${app.maxBatchSize:1000}") int maxBatchSize) {
         this.jdbcScheduler = jdbcScheduler;
         this.serviceUtil = serviceUtil;
         this.mapper = mapper;
         this.repository = repository;
+        this.maxPageSize = maxPageSize;
+        this.maxBatchSize = maxBatchSize;
     }
 
     @Override
-    public Flux<Review> getReviews(int productId) {
+    public Flux<Review> getReviews(int productId, boolean includeContent) {
 
         if (productId < 1) {
             throw new InvalidInputException("Invalid productId: " + productId);
         }
 
-        LOG.info("Will get reviews for product with id={}", productId);
+        LOG.info("Will get reviews for product with id={}, includeContent={}", productId, includeContent);
 
-        return Mono.fromCallable(() -> internalGetReviews(productId))
+        return Mono.fromCallable(() -> includeContent ? internalGetReviews(productId) : internalGetReviewSummaries(productId))
                 .flatMapMany(Flux::fromIterable)
                 .log(LOG.getName(), Level.FINE)
                 .subscribeOn(jdbcScheduler);
@@ -63,6 +72,71 @@ public class ReviewServiceImpl implements ReviewService {
         return reviewList;
     }
 
+    private List<Review> internalGetReviewSummaries(int productId) {
+        List<ReviewSummaryView> summaries = repository.findSummariesByProductId(productId);
+        List<Review> reviewList = mapper.summaryListToApiList(summaries);
+        reviewList.forEach(e -> e.setServiceAddress(serviceUtil.getServiceAddress()));
+        LOG.debug("Response size: {}", reviewList.size());
+
+        return reviewList;
+    }
+
+    @Override
+    public Flux<Review> getReviewsPage(int productId, int after, int limit) {
+
+        if (productId < 1) {
+            throw new InvalidInputException("Invalid productId: " + productId);
+        }
+        if (limit < 1 || limit > maxPageSize) {
+            throw new InvalidInputException("Invalid limit: " + limit + ", expected 1 to " + maxPageSize);
+        }
+
+        LOG.info("Will get a page of reviews for product with id={}, after={}, limit={}", productId, after, limit);
+
+        return Mono.fromCallable(() -> internalGetReviewsPage(productId, after, limit))
+                .flatMapMany(Flux::fromIterable)
+                .log(LOG.getName(), Level.FINE)
+                .subscribeOn(jdbcScheduler);
+    }
+
+    private List<Review> internalGetReviewsPage(int productId, int after, int limit) {
+        List<ReviewEntity> entity = repository.findByProductIdAndReviewIdGreaterThanOrderByReviewIdAsc(productId, after, Limit.of(limit));
+        List<Review> reviewList = mapper.entityListToApiList(entity);
+        reviewList.forEach(e -> e.setServiceAddress(serviceUtil.getServiceAddress()));
+        LOG.debug("Response size: {}", reviewList.size());
+
+        return reviewList;
+    }
+
+    @Override
+    public Flux<Review> getReviews(List<Integer> productIds) {
+
+        if (productIds.isEmpty() || productIds.size() > maxBatchSize) {
+            throw new InvalidInputException("Invalid number of productIds: " + productIds.size() + ", expected 1 to " + maxBatchSize);
+        }
+        productIds.forEach(productId -> {
+            if (productId == null || productId < 1) {
+                throw new InvalidInputException("Invalid productId: " + productId);
+            }
+        });
+
+        LOG.info("Will get reviews for products with ids={}", productIds);
+
+        return Mono.fromCallable(() -> internalGetReviews(productIds))
+                .flatMapMany(Flux::fromIterable)
+                .log(LOG.getName(), Level.FINE)
+                .subscribeOn(jdbcScheduler);
+    }
+
+    private List<Review> internalGetReviews(List<Integer> productIds) {
+        List<ReviewEntity> entity = repository.findByProductIdIn(productIds);
+        List<Review> reviewList = mapper.entityListToApiList(entity);
+        reviewList.forEach(e -> e.setServiceAddress(serviceUtil.getServiceAddress()));
+        LOG.debug("Response size: {}", reviewList.size());
+
+        return reviewList;
+    }
+
     @Override
     public Mono<Review> createReview(Review body) {
 
@@ -0,0 +1,118 @@
+package com.aw.micro.review_service.services;
+
+import com.aw.micro.api.core.review.Review;
+import com.aw.micro.api.event.Event;
+import com.aw.micro.review_service.persistence.ReviewEntity;
+import com.aw.micro.review_service.persistence.ReviewRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.Optional;
+
+import static com.aw.micro.api.event.Event.Type.CREATE;
+import static com.aw.micro.api.event.Event.Type.CREATE_ALL;
+import static com.aw.micro.api.event.Event.Type.UPDATE;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReviewBatchWriterTest {
+
+	private final ReviewRepository repository = mock(ReviewRepository.class);
+	private final ReviewMapper mapper = mock(ReviewMapper.class);
+	private final ReviewBatchWriter writer = new ReviewBatchWriter(Schedulers.immediate(), repository, mapper);
+
+	@Test
+	void returnsTheInvalidEventsOfAnInsert() {
+		Event<Integer, Review> valid = new Event<>(CREATE, 1, review(1, 1));
+		Event<Integer, Review> invalid = new Event<>(CREATE, 0, review(0, 1));
+		when(mapper.apiToEntity(any())).thenReturn(new ReviewEntity());
+
+		StepVerifier.create(writer.apply(CREATE, List.of(valid, invalid)))
+				.expectNext(List.of(invalid))
+				.verifyComplete();
+
+		verify(repository).saveAll(anyIterable());
+	}
+
+	@Test
+	void returnsAllEventsOfARolledBackInsert() {
+		List<Event<Integer, Review>> events = List.of(new Event<>(CREATE, 1, review(1, 1)), new Event<>(CREATE, 1, review(1, 1)));
+		when(mapper.apiToEntity(any())).thenReturn(new ReviewEntity());
+		when(repository.saveAll(anyIterable())).thenThrow(new DataIntegrityViolationException("Duplicate key"));
+
+		StepVerifier.create(writer.apply(CREATE, events))
+				.expectNext(events)
+				.verifyComplete();
+	}
+
+	@Test
+	void insertsTheReviewsOfAllCreateAllEventsInOneBatch() {
+		Event<Integer, Review> first = Event.createAll(1, List.of(review(1, 1), review(1, 2)));
+		Event<Integer, Review> second = Event.createAll(2, List.of(review(2, 1)));
+		when(mapper.apiToEntity(any())).thenReturn(new ReviewEntity());
+
+		StepVerifier.create(writer.apply(CREATE_ALL, List.of(first, second)))
+				.expectNext(List.of())
+				.verifyComplete();
+
+		verify(repository).saveAll(argThat((Iterable<ReviewEntity> entities) -> entities instanceof List<?> list && list.size() == 3));
+	}
+
+	@Test
+	void returnsACreateAllEventWithAnInvalidReview() {
+		Event<Integer, Review> valid = Event.createAll(1, List.of(review(1, 1)));
+		Event<Integer, Review> invalid = Event.createAll(2, List.of(review(2, 1), review(0, 2)));
+		when(mapper.apiToEntity(any())).thenReturn(new ReviewEntity());
+
+		StepVerifier.create(writer.apply(CREATE_ALL, List.of(valid, invalid)))
+				.expectNext(List.of(invalid))
+				.verifyComplete();
+
+		verify(repository).saveAll(argThat((Iterable<ReviewEntity> entities) -> entities instanceof List<?> list && list.size() == 1));
+	}
+
+	@Test
+	void returnsAFailedUpdateAndTheUpdatesAfterIt() {
+		ReviewEntity first = entity(1);
+		ReviewEntity second = entity(2);
+		ReviewEntity third = entity(3);
+		when(repository.findByProductIdAndReviewId(1, 1)).thenReturn(Optional.of(first));
+		when(repository.findByProductIdAndReviewId(1, 2)).thenReturn(Optional.of(second));
+		when(repository.findByProductIdAndReviewId(1, 3)).thenReturn(Optional.of(third));
+		when(repository.save(second)).thenThrow(new OptimisticLockingFailureException("Changed concurrently"));
+
+		Event<Integer, Review> applied = update(1);
+		Event<Integer, Review> failed = update(2);
+		Event<Integer, Review> after = update(3);
+
+		StepVerifier.create(writer.apply(UPDATE, List.of(applied, failed, after)))
+				.expectNext(List.of(failed, after))
+				.verifyComplete();
+
+		verify(repository).save(first);
+		verify(repository, times(1)).save(second);
+		verify(repository, never()).save(third);
+	}
+
+	private static Event<Integer, Review> update(int reviewId) {
+		return Event.update(1, review(1, reviewId), List.of("subject"));
+	}
+
+	private static Review review(int productId, int reviewId) {
+		return new Review(productId, reviewId, "author", "subject " + reviewId, "content", null);
+	}
+
+	private static ReviewEntity entity(int reviewId) {
+		return new ReviewEntity(1, reviewId, "author", "subject", "content");
+	}
+}
@@ -0,0 +1,98 @@
+package com.aw.micro.util.http;
+
+import com.aw.micro.api.composite.ProductAggregate;
+import com.aw.micro.api.composite.RecommendationSummary;
+import com.aw.micro.api.composite.ReviewSummary;
+import com.aw.micro.api.composite.ServiceAddresses;
+import com.aw.micro.api.core.review.Review;
+import com.aw.micro.api.event.Event;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The previous Jackson setup, a plain ObjectMapper used directly, against the Blackbird module with the
+ * {@link PrecompiledCodecs}, for the bodies and events on the hot paths. Also compares the ZonedDateTime timestamp
+ * events used to carry with the epoch millis they carry now.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JacksonCodecBenchmark {
+
+    @Param({"baseline", "precompiled"})
+    public String setup;
+
+    private ObjectMapper mapper;
+    private ObjectWriter aggregateWriter;
+    private ObjectWriter eventWriter;
+    private ObjectReader reviewReader;
+
+    private ProductAggregate aggregate;
+    private Event<Integer, Review> event;
+    private byte[] review;
+
+    @Setup
+    public void setup() throws IOException {
+        if (setup.equals("baseline")) {
+            mapper = new ObjectMapper();
+        } else {
+            mapper = new ObjectMapper().registerModule(new BlackbirdModule());
+            PrecompiledCodecs codecs = new PrecompiledCodecs(mapper);
+            aggregateWriter = codecs.writerFor(ProductAggregate.class);
+            eventWriter = codecs.writerFor(Event.class);
+            reviewReader = codecs.readerFor(Review.class);
+        }
+
+        List<RecommendationSummary> recommendations = new ArrayList<>();
+        List<ReviewSummary> reviews = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            recommendations.add(new RecommendationSummary(i, "Author " + i, i % 5, "Recommendation content " + i));
+            reviews.add(new ReviewSummary(i, "Author " + i, "Subject " + i, "Review content " + i));
+        }
+        aggregate = new ProductAggregate(1, "Product 1", 100, recommendations, reviews,
+                new ServiceAddresses("composite", "product", "review", "recommendation"));
+        event = new Event<>(Event.Type.CREATE, 1, new Review(1, 1, "Author", "Subject", "Review content", null));
+        review = mapper.writeValueAsBytes(event.getData());
+    }
+
+    @Benchmark
+    public byte[] encodeProductAggregate() throws IOException {
+        return aggregateWriter != null ? aggregateWriter.writeValueAsBytes(aggregate) : mapper.writeValueAsBytes(aggregate);
+    }
+
+    @Benchmark
+    public byte[] encodeEvent() throws IOException {
+        return eventWriter != null ? eventWriter.writeValueAsBytes(event) : mapper.writeValueAsBytes(event);
+    }
+
+    @Benchmark
+    public Review decodeReview() throws IOException {
+        return reviewReader != null ? reviewReader.readValue(review) : mapper.readValue(review, Review.class);
+    }
+
+    @Benchmark
+    public Object timestampZonedDateTime() {
+        return ZonedDateTime.now();
+    }
+
+    @Benchmark
+    public long timestampEpochMillis() {
+        return System.currentTimeMillis();
+    }
+}
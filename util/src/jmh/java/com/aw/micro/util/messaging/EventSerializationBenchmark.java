@@ -0,0 +1,89 @@
+package com.aw.micro.util.messaging;
+
+import com.aw.micro.api.core.review.Review;
+import com.aw.micro.api.event.Event;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of review events in JSON, CBOR and Smile, for a single CREATE event and for a CREATE_ALL
+ * event with 500 reviews. The payload size is reported as the payloadBytes counter next to the scores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventSerializationBenchmark {
+
+    @Param({"application/json", "application/cbor", "application/x-jackson-smile"})
+    public String contentType;
+
+    @Param({"single", "createAll"})
+    public String event;
+
+    private Event<Integer, Review> value;
+    private byte[] payload;
+    private ObjectWriter writer;
+    private ObjectReader reader;
+
+    @Setup
+    public void setup() throws IOException {
+        ObjectMapper mapper = new EventFormats(new ObjectMapper()).mapperFor(contentType);
+        writer = mapper.writerFor(new TypeReference<Event<Integer, Review>>() {});
+        reader = mapper.readerFor(new TypeReference<Event<Integer, Review>>() {});
+
+        if (event.equals("single")) {
+            value = new Event<>(Event.Type.CREATE, 1, review(1));
+        } else {
+            List<Review> reviews = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                reviews.add(review(i));
+            }
+            value = Event.createAll(1, reviews);
+        }
+        payload = writer.writeValueAsBytes(value);
+    }
+
+    @Benchmark
+    public byte[] encode(PayloadSize size) throws IOException {
+        return writer.writeValueAsBytes(value);
+    }
+
+    @Benchmark
+    public Event<Integer, Review> decode(PayloadSize size) throws IOException {
+        return reader.readValue(payload);
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class PayloadSize {
+
+        public long payloadBytes;
+
+        @Setup(Level.Iteration)
+        public void record(EventSerializationBenchmark benchmark) {
+            payloadBytes = benchmark.payload.length;
+        }
+    }
+
+    private static Review review(int reviewId) {
+        return new Review(1, reviewId, "Author " + reviewId, "Subject " + reviewId,
+                "A few sentences of review content, about as long as a typical review of a product", null);
+    }
+}
@@ -0,0 +1,90 @@
+package com.aw.micro.util.http;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.codec.json.Jackson2CodecSupport;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.lang.Nullable;
+import org.springframework.util.MimeType;
+
+import java.util.Map;
+
+/**
+ * Jackson setup shared by all services.
+ * <p>
+ * The Blackbird module replaces the reflective access to getters, setters and constructors with generated lambdas.
+ * Spring Boot registers Module beans in the auto-configured ObjectMapper, so it applies to the HTTP bodies, the events
+ * and to the CBOR and Smile mappers copied from it. The JSON codecs of the servers and WebClients use the
+ * {@link PrecompiledCodecs} for the types they have a reader or writer for.
+ */
+@Configuration
+public class JacksonCodecConfig {
+
+    @Bean
+    public Module blackbirdModule() {
+        return new BlackbirdModule();
+    }
+
+    @Bean
+    public PrecompiledCodecs precompiledCodecs(ObjectMapper mapper) {
+        return new PrecompiledCodecs(mapper);
+    }
+
+    // Applied after the codec customizer of Spring Boot, which sets the default JSON codecs
+    @Bean
+    @Order(1)
+    public CodecCustomizer precompiledCodecCustomizer(ObjectMapper mapper, PrecompiledCodecs codecs) {
+        return configurer -> {
+            configurer.defaultCodecs().jackson2JsonEncoder(new PrecompiledJsonEncoder(mapper, codecs));
+            configurer.defaultCodecs().jackson2JsonDecoder(new PrecompiledJsonDecoder(mapper, codecs));
+        };
+    }
+
+    // Values written with a JSON view need the writer of the view, they keep the writer created by the encoder
+    private static boolean hasJsonView(@Nullable Map<String, Object> hints) {
+        return hints != null && hints.containsKey(Jackson2CodecSupport.JSON_VIEW_HINT);
+    }
+
+    private static class PrecompiledJsonEncoder extends Jackson2JsonEncoder {
+
+        private final PrecompiledCodecs codecs;
+
+        private PrecompiledJsonEncoder(ObjectMapper mapper, PrecompiledCodecs codecs) {
+            super(mapper);
+            this.codecs = codecs;
+        }
+
+        @Override
+        protected ObjectWriter customizeWriter(ObjectWriter writer, @Nullable MimeType mimeType,
+                                               ResolvableType elementType, @Nullable Map<String, Object> hints) {
+            ObjectWriter precompiled = hasJsonView(hints) ? null : codecs.writerFor(elementType.toClass());
+            return super.customizeWriter(precompiled != null ? precompiled : writer, mimeType, elementType, hints);
+        }
+    }
+
+    private static class PrecompiledJsonDecoder extends Jackson2JsonDecoder {
+
+        private final PrecompiledCodecs codecs;
+
+        private PrecompiledJsonDecoder(ObjectMapper mapper, PrecompiledCodecs codecs) {
+            super(mapper);
+            this.codecs = codecs;
+        }
+
+        @Override
+        protected ObjectReader customizeReader(ObjectReader reader, ResolvableType elementType,
+                                               @Nullable Map<String, Object> hints) {
+            ObjectReader precompiled = hasJsonView(hints) ? null : codecs.readerFor(elementType.toClass());
+            return super.customizeReader(precompiled != null ? precompiled : reader, elementType, hints);
+        }
+    }
+}
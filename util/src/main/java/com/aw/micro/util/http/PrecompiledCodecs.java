@@ -0,0 +1,54 @@
+package com.aw.micro.util.http;
+
+import com.aw.micro.api.composite.ProductAggregate;
+import com.aw.micro.api.core.product.Product;
+import com.aw.micro.api.core.recommendation.Recommendation;
+import com.aw.micro.api.core.review.Review;
+import com.aw.micro.api.event.Event;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.lang.Nullable;
+
+import java.util.List;
+import java.util.Map;
+
+import static java.util.stream.Collectors.toUnmodifiableMap;
+
+/**
+ * ObjectReaders and ObjectWriters of the types on the hot paths, created once up front.
+ * <p>
+ * A reader or writer created for a type resolves its root (de)serializer when it is created, instead of looking it
+ * up in the caches of the ObjectMapper for every value. Readers exist for the bodies read from the core services,
+ * writers also for ProductAggregate and Event.
+ */
+public class PrecompiledCodecs {
+
+    private static final List<Class<?>> READ_TYPES = List.of(Product.class, Recommendation.class, Review.class);
+    private static final List<Class<?>> WRITE_TYPES = List.of(Product.class, Recommendation.class, Review.class,
+            ProductAggregate.class, Event.class);
+
+    private final Map<Class<?>, ObjectReader> readers;
+    private final Map<Class<?>, ObjectWriter> writers;
+
+    public PrecompiledCodecs(ObjectMapper mapper) {
+        this.readers = READ_TYPES.stream().collect(toUnmodifiableMap(type -> type, mapper::readerFor));
+        this.writers = WRITE_TYPES.stream().collect(toUnmodifiableMap(type -> type, mapper::writerFor));
+    }
+
+    /**
+     * Returns the reader of the type, or null if there is no precompiled reader for it.
+     */
+    @Nullable
+    public ObjectReader readerFor(Class<?> type) {
+        return readers.get(type);
+    }
+
+    /**
+     * Returns the writer of the type, or null if there is no precompiled writer for it.
+     */
+    @Nullable
+    public ObjectWriter writerFor(Class<?> type) {
+        return writers.get(type);
+    }
+}
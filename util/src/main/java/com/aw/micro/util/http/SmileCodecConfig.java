@@ -0,0 +1,30 @@
+package com.aw.micro.util.http;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.codec.smile.Jackson2SmileDecoder;
+import org.springframework.http.codec.smile.Jackson2SmileEncoder;
+
+/**
+ * Smile (binary JSON) codecs for the HTTP calls between the services, for the server side as well as for WebClients
+ * built from the auto-configured WebClient.Builder.
+ * <p>
+ * The codecs use a copy of the application's ObjectMapper, so Smile bodies are written with the same modules and
+ * settings as JSON bodies. Smile is only used when the client asks for it with its Accept header, JSON stays the
+ * default. CBOR is not offered since the CBOR codecs of Spring can't encode or decode a Flux.
+ */
+@Configuration
+public class SmileCodecConfig {
+
+    @Bean
+    public CodecCustomizer smileCodecCustomizer(ObjectMapper mapper) {
+        ObjectMapper smileMapper = mapper.copyWith(new SmileFactory());
+        return configurer -> {
+            configurer.defaultCodecs().jackson2SmileEncoder(new Jackson2SmileEncoder(smileMapper));
+            configurer.defaultCodecs().jackson2SmileDecoder(new Jackson2SmileDecoder(smileMapper));
+        };
+    }
+}
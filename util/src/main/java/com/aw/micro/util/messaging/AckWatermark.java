@@ -0,0 +1,122 @@
+package com.aw.micro.util.messaging;
+
+import com.rabbitmq.client.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.messaging.Message;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Acknowledges messages that are processed out of order, e.g. by different lanes, only up to the lowest message that
+ * is not fully processed yet.
+ * <p>
+ * Delivery tags are tracked per channel in the order the messages were received. When a message is done, the longest
+ * run of done messages from the oldest one on is acknowledged with a single multiple ack, so a crash never loses a
+ * message that was received before one that is still in progress, it is redelivered instead.
+ * A rejected message is nacked without requeue, the dead letter exchange of the queue routes it to the dead letter
+ * queue, and then no longer holds back the later messages. If the nack fails it is held instead: never acknowledged,
+ * so it and everything received after it on its channel are redelivered once the channel closes.
+ * Messages without a channel header, i.e. of bindings that are not in MANUAL acknowledge mode, are ignored.
+ */
+public class AckWatermark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AckWatermark.class);
+
+    private enum State { IN_PROGRESS, DONE, REJECTED, HELD }
+
+    private final Map<Channel, ConcurrentNavigableMap<Long, State>> inFlightByChannel = new ConcurrentHashMap<>();
+
+    /**
+     * Must be called in the order the messages are received from the binding.
+     */
+    public void received(Message<?> message) {
+        Channel channel = channelOf(message);
+        if (channel != null) {
+            inFlightByChannel.computeIfAbsent(channel, c -> new ConcurrentSkipListMap<>()).put(deliveryTagOf(message), State.IN_PROGRESS);
+        }
+    }
+
+    /**
+     * Hands the message to the dead letter exchange of its queue, also when it is reported as processed later on.
+     * Returns false if the message can't be rejected since its binding acknowledges by itself.
+     */
+    public boolean reject(Message<?> message) {
+        Channel channel = channelOf(message);
+        if (channel == null) {
+            return false;
+        }
+        ConcurrentNavigableMap<Long, State> inFlight = inFlightByChannel.get(channel);
+        if (inFlight == null) {
+            return true;
+        }
+        long deliveryTag = deliveryTagOf(message);
+        synchronized (inFlight) {
+            try {
+                channel.basicNack(deliveryTag, false, false);
+                inFlight.replace(deliveryTag, State.IN_PROGRESS, State.REJECTED);
+            } catch (IOException | RuntimeException ex) {
+                LOG.warn("Failed to reject the message with delivery tag {}, it is held for redelivery: {}", deliveryTag, ex.toString());
+                inFlight.replace(deliveryTag, State.IN_PROGRESS, State.HELD);
+            }
+        }
+        // The rejected message may have been the oldest one in progress
+        processed(message);
+        return true;
+    }
+
+    public void processed(Message<?> message) {
+        Channel channel = channelOf(message);
+        if (channel == null) {
+            return;
+        }
+        ConcurrentNavigableMap<Long, State> inFlight = inFlightByChannel.get(channel);
+        if (inFlight == null) {
+            return;
+        }
+        inFlight.replace(deliveryTagOf(message), State.IN_PROGRESS, State.DONE);
+
+        // Acks of one channel must be sent in increasing order
+        synchronized (inFlight) {
+            Long watermark = null;
+            for (Map.Entry<Long, State> oldest = inFlight.firstEntry(); oldest != null && oldest.getValue() != State.IN_PROGRESS && oldest.getValue() != State.HELD; oldest = inFlight.firstEntry()) {
+                inFlight.remove(oldest.getKey());
+                // A rejected message is already settled, acking its delivery tag would close the channel
+                if (oldest.getValue() == State.DONE) {
+                    watermark = oldest.getKey();
+                }
+            }
+            if (watermark != null) {
+                ack(channel, watermark);
+            }
+        }
+    }
+
+    private void ack(Channel channel, long watermark) {
+        if (!channel.isOpen()) {
+            // Unacknowledged messages of a closed channel are redelivered by the broker
+            LOG.warn("Channel closed before messages up to delivery tag {} could be acknowledged", watermark);
+            inFlightByChannel.remove(channel);
+            return;
+        }
+        try {
+            LOG.debug("Acknowledging messages up to delivery tag {}", watermark);
+            channel.basicAck(watermark, true);
+        } catch (IOException ex) {
+            LOG.warn("Failed to acknowledge messages up to delivery tag {}: {}", watermark, ex.toString());
+        }
+    }
+
+    private Channel channelOf(Message<?> message) {
+        return message.getHeaders().get(AmqpHeaders.CHANNEL, Channel.class);
+    }
+
+    private long deliveryTagOf(Message<?> message) {
+        return message.getHeaders().get(AmqpHeaders.DELIVERY_TAG, Long.class);
+    }
+}
@@ -0,0 +1,171 @@
+package com.aw.micro.util.messaging;
+
+import com.aw.micro.api.exceptions.EventProcessingException;
+import com.aw.micro.api.exceptions.InvalidInputException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of storage calls in progress and adapts the limit to the latency of the storage.
+ * <p>
+ * A call slower than the target latency, or failing for another reason than invalid input, halves the limit, at most
+ * once per target latency so the calls already in progress don't collapse it at once. Every fast successful call
+ * raises the limit by 1/limit, so it recovers by about one per limit calls. Calls over the limit wait for a permit.
+ * With manual acknowledgements and a bounded prefetch, a consumer that waits stops pulling from the broker, so
+ * messages stay queued there instead of piling up in retries and in the dead letter queue.
+ */
+public class AdaptiveConcurrencyLimit {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveConcurrencyLimit.class);
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyNanos;
+
+    private final Deque<Permit> waiting = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private long lastDecrease;
+
+    public AdaptiveConcurrencyLimit(int minLimit, int maxLimit, Duration targetLatency, MeterRegistry registry) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetLatencyNanos = targetLatency.toNanos();
+        this.limit = maxLimit;
+        this.lastDecrease = System.nanoTime() - targetLatencyNanos;
+
+        Gauge.builder("messaging.flow.limit", this, AdaptiveConcurrencyLimit::getLimit)
+                .description("Current limit of storage calls in progress")
+                .register(registry);
+        Gauge.builder("messaging.flow.waiting", this, AdaptiveConcurrencyLimit::getWaiting)
+                .description("Events waiting for the storage")
+                .register(registry);
+
+        LOG.info("Created an adaptive concurrency limit with minLimit = {}, maxLimit = {}, targetLatency = {}", minLimit, maxLimit, targetLatency);
+    }
+
+    public <T> Mono<T> run(Supplier<Mono<T>> call) {
+        return Mono.defer(() -> {
+            Permit permit = new Permit();
+            return acquire(permit)
+                    .then(Mono.defer(() -> {
+                        long start = System.nanoTime();
+                        return call.get()
+                                .doOnSuccess(result -> release(permit, System.nanoTime() - start, false))
+                                .doOnError(ex -> release(permit, System.nanoTime() - start, isSaturation(ex)));
+                    }))
+                    .doOnCancel(() -> cancel(permit));
+        });
+    }
+
+    private Mono<Void> acquire(Permit permit) {
+        synchronized (this) {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                permit.granted = true;
+                return Mono.empty();
+            }
+            waiting.add(permit);
+        }
+        return permit.sink.asMono();
+    }
+
+    private void release(Permit permit, long latencyNanos, boolean failed) {
+        List<Permit> granted;
+        synchronized (this) {
+            if (permit.released) {
+                return;
+            }
+            permit.released = true;
+            inFlight--;
+            int before = (int) limit;
+            long now = System.nanoTime();
+
+            if (failed || latencyNanos > targetLatencyNanos) {
+                if (now - lastDecrease >= targetLatencyNanos) {
+                    limit = Math.max(minLimit, limit / 2);
+                    lastDecrease = now;
+                }
+            } else {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+
+            if ((int) limit < before) {
+                LOG.info("Storage is saturated (latency {} ms, failed: {}), lowering the limit of storage calls in progress to {}",
+                        latencyNanos / 1_000_000, failed, (int) limit);
+            } else if ((int) limit > before && (int) limit == maxLimit) {
+                LOG.info("Storage has recovered, the limit of storage calls in progress is back at {}", maxLimit);
+            }
+
+            granted = grantWaiting();
+        }
+        granted.forEach(next -> next.sink.tryEmitEmpty());
+    }
+
+    /**
+     * A cancelled call says nothing about the latency of the storage, so it leaves the limit as it is. It gives back
+     * its permit if it had one, otherwise it leaves the queue.
+     */
+    private void cancel(Permit permit) {
+        List<Permit> granted;
+        synchronized (this) {
+            if (permit.released) {
+                return;
+            }
+            permit.released = true;
+            if (!permit.granted) {
+                waiting.remove(permit);
+                return;
+            }
+            inFlight--;
+            granted = grantWaiting();
+        }
+        granted.forEach(next -> next.sink.tryEmitEmpty());
+    }
+
+    private List<Permit> grantWaiting() {
+        List<Permit> granted = new ArrayList<>();
+        while (inFlight < (int) limit && !waiting.isEmpty()) {
+            Permit next = waiting.poll();
+            next.granted = true;
+            inFlight++;
+            granted.add(next);
+        }
+        return granted;
+    }
+
+    /**
+     * Invalid events fail however fast the storage is, they say nothing about its load.
+     */
+    private boolean isSaturation(Throwable ex) {
+        return !(ex instanceof InvalidInputException || ex instanceof EventProcessingException);
+    }
+
+    private synchronized double getLimit() {
+        return limit;
+    }
+
+    private synchronized double getWaiting() {
+        return waiting.size();
+    }
+
+    /**
+     * The state of one call, guarded by the limit.
+     */
+    private static class Permit {
+        private final Sinks.One<Void> sink = Sinks.one();
+        private boolean granted;
+        private boolean released;
+    }
+}
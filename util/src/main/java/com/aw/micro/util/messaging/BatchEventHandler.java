@@ -0,0 +1,20 @@
+package com.aw.micro.util.messaging;
+
+import com.aw.micro.api.event.Event;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Applies a batch of events in bulk, used by the {@link ReactiveEventProcessor} in batch mode.
+ */
+@FunctionalInterface
+public interface BatchEventHandler<K, T> {
+
+    /**
+     * @param eventType Type of all the events of the batch
+     * @param events Events in the order they were received
+     * @return the events that could not be applied, they are processed one by one again, with retries and dead lettering
+     */
+    Mono<List<Event<K, T>>> apply(Event.Type eventType, List<Event<K, T>> events);
+}
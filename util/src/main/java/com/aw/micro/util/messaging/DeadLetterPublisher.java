@@ -0,0 +1,89 @@
+package com.aw.micro.util.messaging;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Publishes messages that failed all their attempts to the dead letter queue of the input binding.
+ * <p>
+ * The binder only dead-letters messages of imperative consumers, reactive consumers have to do it themselves.
+ * The output binding is expected to point to the same dead letter queue the binder declares, so existing tooling
+ * keeps finding the failed messages in the same place.
+ * <p>
+ * A failed publish is returned as an error, the caller must not acknowledge the message then.
+ * <p>
+ * With a confirmTimeout, the publish waits for the publisher confirm of the broker and fails if the dead letter was
+ * nacked or returned as unroutable. This needs publisher confirms and returns on the connection factory and
+ * useConfirmHeader on the producer binding, otherwise no confirm ever arrives. Without confirms, a dead letter that
+ * matches no binding of the dead letter exchange is dropped by the broker while the publish succeeds.
+ */
+public class DeadLetterPublisher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeadLetterPublisher.class);
+
+    public static final String EXCEPTION_MESSAGE_HEADER = "x-exception-message";
+    public static final String ORIGINAL_EXCHANGE_HEADER = "x-original-exchange";
+    public static final String ORIGINAL_ROUTING_KEY_HEADER = "x-original-routingKey";
+
+    private final StreamBridge streamBridge;
+    private final String bindingName;
+    private final Duration confirmTimeout;
+
+    public DeadLetterPublisher(StreamBridge streamBridge, String bindingName) {
+        this(streamBridge, bindingName, Duration.ZERO);
+    }
+
+    /**
+     * @param confirmTimeout Max time to wait for the publisher confirm, zero to not wait for confirms
+     */
+    public DeadLetterPublisher(StreamBridge streamBridge, String bindingName, Duration confirmTimeout) {
+        this.streamBridge = streamBridge;
+        this.bindingName = bindingName;
+        this.confirmTimeout = confirmTimeout;
+    }
+
+    public Mono<Void> publish(Message<?> message, Throwable failure) {
+        return Mono.fromCallable(() -> {
+                    LOG.warn("Sending a message to the dead letter queue using binding {} after: {}", bindingName, failure.toString());
+                    CorrelationData correlation = new CorrelationData();
+                    MessageBuilder<?> deadLetter = MessageBuilder.fromMessage(message)
+                            .setHeader(EXCEPTION_MESSAGE_HEADER, String.valueOf(failure.getMessage()))
+                            // Same headers as the binder's republishToDlq, used to replay the message to where it came from
+                            .setHeader(ORIGINAL_EXCHANGE_HEADER, message.getHeaders().get(AmqpHeaders.RECEIVED_EXCHANGE))
+                            .setHeader(ORIGINAL_ROUTING_KEY_HEADER, message.getHeaders().get(AmqpHeaders.RECEIVED_ROUTING_KEY));
+                    if (!confirmTimeout.isZero()) {
+                        deadLetter.setHeader(AmqpHeaders.PUBLISH_CONFIRM_CORRELATION, correlation);
+                    }
+                    if (!streamBridge.send(bindingName, deadLetter.build())) {
+                        throw new IllegalStateException("Message was not accepted by binding " + bindingName);
+                    }
+                    return correlation;
+                })
+                .flatMap(correlation -> confirmTimeout.isZero() ? Mono.empty() : confirmed(correlation))
+                .doOnError(ex -> LOG.error("Failed to send a message to the dead letter queue: {}", ex.toString()))
+                .then();
+    }
+
+    private Mono<Void> confirmed(CorrelationData correlation) {
+        return Mono.fromFuture(correlation.getFuture())
+                .timeout(confirmTimeout)
+                .flatMap(confirm -> {
+                    // A returned message is still acked by the broker, the return arrives before the confirm
+                    if (correlation.getReturned() != null) {
+                        return Mono.error(new IllegalStateException("Dead letter was not routable: " + correlation.getReturned().getReplyText()));
+                    }
+                    if (!confirm.isAck()) {
+                        return Mono.error(new IllegalStateException("Dead letter was nacked by the broker: " + confirm.getReason()));
+                    }
+                    return Mono.empty();
+                });
+    }
+}
@@ -0,0 +1,244 @@
+package com.aw.micro.util.messaging;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.GetResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Actuator endpoint that replays dead lettered events back to the queue they came from, at a limited rate.
+ * <p>
+ * Sample usage: "curl -X POST -H 'Content-Type: application/json' -d '{"rate": 20, "eventType": "CREATE"}'
+ * $HOST:$PORT/actuator/deadletters" starts a replay, "curl $HOST:$PORT/actuator/deadletters" shows its progress and
+ * "curl -X DELETE $HOST:$PORT/actuator/deadletters" stops it.
+ * <p>
+ * Messages are published to their original exchange and routing key, or to the destination of the binding if the
+ * dead letter has no such headers. Each batch is confirmed by the broker before it is removed from the dead letter
+ * queue, so a crash during a replay can duplicate events but not lose them. Messages that don't match the filter are
+ * left in the dead letter queue.
+ */
+@Endpoint(id = "deadletters")
+public class DeadLetterReplayEndpoint {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeadLetterReplayEndpoint.class);
+
+    private final ConnectionFactory connectionFactory;
+    private final EventFormats formats;
+    private final String deadLetterQueue;
+    private final String destination;
+    private final int defaultRate;
+    private final int defaultBatchSize;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "dlq-replay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private volatile long queued;
+    private volatile Instant startedAt;
+    private volatile Instant endedAt;
+    private volatile String state = "IDLE";
+    private volatile String filter;
+
+    public DeadLetterReplayEndpoint(ConnectionFactory connectionFactory, EventFormats formats, String deadLetterQueue,
+                                    String destination, int defaultRate, int defaultBatchSize) {
+        this.connectionFactory = connectionFactory;
+        this.formats = formats;
+        this.deadLetterQueue = deadLetterQueue;
+        this.destination = destination;
+        this.defaultRate = defaultRate;
+        this.defaultBatchSize = defaultBatchSize;
+    }
+
+    @ReadOperation
+    public Map<String, Object> progress() {
+        Map<String, Object> progress = new HashMap<>();
+        progress.put("queue", deadLetterQueue);
+        progress.put("state", state);
+        progress.put("filter", filter);
+        progress.put("queued", queued);
+        progress.put("replayed", replayed.get());
+        progress.put("skipped", skipped.get());
+        if (startedAt != null) {
+            Duration elapsed = Duration.between(startedAt, endedAt != null ? endedAt : Instant.now());
+            progress.put("startedAt", startedAt.toString());
+            progress.put("elapsedSeconds", elapsed.toSeconds());
+            progress.put("eventsPerSecond", elapsed.isZero() ? 0 : replayed.get() * 1000.0 / elapsed.toMillis());
+        }
+        return progress;
+    }
+
+    /**
+     * @param rate Max number of events replayed per second
+     * @param batchSize Number of events published and confirmed at once
+     * @param eventType Only replay events of this type
+     * @param fromProductId Only replay events with a key from this productId
+     * @param toProductId Only replay events with a key up to and including this productId
+     */
+    @WriteOperation
+    public Map<String, Object> replay(@Nullable Integer rate, @Nullable Integer batchSize, @Nullable String eventType,
+                                      @Nullable Integer fromProductId, @Nullable Integer toProductId) {
+        if (!running.compareAndSet(false, true)) {
+            return progress();
+        }
+        int replayRate = rate != null && rate > 0 ? rate : defaultRate;
+        int replayBatchSize = batchSize != null && batchSize > 0 ? batchSize : defaultBatchSize;
+
+        cancelled.set(false);
+        replayed.set(0);
+        skipped.set(0);
+        startedAt = Instant.now();
+        endedAt = null;
+        state = "RUNNING";
+        filter = "eventType=" + eventType + ", productIds=" + fromProductId + ".." + toProductId;
+        LOG.info("Replaying dead letters of {} with rate = {}/s, batchSize = {}, {}", deadLetterQueue, replayRate, replayBatchSize, filter);
+
+        executor.submit(() -> {
+            // A connection of its own, the channel is put in confirm mode and must not end up in a shared channel cache
+            try (Connection connection = connectionFactory.newConnection("dlq-replay");
+                 Channel channel = connection.createChannel()) {
+                replay(channel, replayRate, replayBatchSize, eventType, fromProductId, toProductId);
+                state = cancelled.get() ? "CANCELLED" : "DONE";
+            } catch (IOException | TimeoutException | RuntimeException ex) {
+                LOG.warn("Replay of the dead letters of {} failed: {}", deadLetterQueue, ex.toString());
+                state = "FAILED: " + ex.getMessage();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                state = "CANCELLED";
+            } finally {
+                endedAt = Instant.now();
+                running.set(false);
+                LOG.info("Replay of the dead letters of {} ended with state {}, replayed {}, skipped {}", deadLetterQueue, state, replayed.get(), skipped.get());
+            }
+        });
+        return progress();
+    }
+
+    @DeleteOperation
+    public Map<String, Object> cancel() {
+        cancelled.set(true);
+        return progress();
+    }
+
+    private void replay(Channel channel, int rate, int batchSize, String eventType, Integer fromProductId, Integer toProductId)
+            throws IOException, InterruptedException, TimeoutException {
+
+        // Only what is in the queue now is replayed, events that fail again and come back are left for the next replay
+        queued = channel.queueDeclarePassive(deadLetterQueue).getMessageCount();
+        channel.confirmSelect();
+
+        long nanosPerEvent = TimeUnit.SECONDS.toNanos(1) / rate;
+        long next = System.nanoTime();
+        List<Long> batch = new ArrayList<>();
+        List<Long> skippedTags = new ArrayList<>();
+
+        for (long seen = 0; seen < queued && !cancelled.get(); seen++) {
+            GetResponse response = channel.basicGet(deadLetterQueue, false);
+            if (response == null) {
+                break;
+            }
+            long deliveryTag = response.getEnvelope().getDeliveryTag();
+
+            if (!matches(response.getProps().getContentType(), response.getBody(), eventType, fromProductId, toProductId)) {
+                // Kept unacknowledged until the end, so the next basicGet returns the next message instead of this one
+                skippedTags.add(deliveryTag);
+                skipped.incrementAndGet();
+                continue;
+            }
+
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            next = Math.max(next, System.nanoTime()) + nanosPerEvent;
+
+            publish(channel, response);
+            batch.add(deliveryTag);
+            if (batch.size() == batchSize) {
+                confirmAndAck(channel, batch, !skippedTags.isEmpty());
+            }
+        }
+        if (!batch.isEmpty()) {
+            confirmAndAck(channel, batch, !skippedTags.isEmpty());
+        }
+        for (long skippedTag : skippedTags) {
+            channel.basicNack(skippedTag, false, true);
+        }
+    }
+
+    private void confirmAndAck(Channel channel, List<Long> batch, boolean skippedAny)
+            throws IOException, InterruptedException, TimeoutException {
+        channel.waitForConfirmsOrDie(TimeUnit.SECONDS.toMillis(30));
+        if (skippedAny) {
+            // A multiple ack would also remove the skipped messages from the dead letter queue
+            for (long deliveryTag : batch) {
+                channel.basicAck(deliveryTag, false);
+            }
+        } else {
+            channel.basicAck(batch.get(batch.size() - 1), true);
+        }
+        replayed.addAndGet(batch.size());
+        batch.clear();
+    }
+
+    private void publish(Channel channel, GetResponse response) throws IOException {
+        AMQP.BasicProperties properties = response.getProps();
+        Map<String, Object> headers = properties.getHeaders() != null ? new HashMap<>(properties.getHeaders()) : new HashMap<>();
+        Object exchange = headers.remove(DeadLetterPublisher.ORIGINAL_EXCHANGE_HEADER);
+        Object routingKey = headers.remove(DeadLetterPublisher.ORIGINAL_ROUTING_KEY_HEADER);
+        headers.remove(DeadLetterPublisher.EXCEPTION_MESSAGE_HEADER);
+        headers.remove("x-exception-stacktrace");
+        headers.remove("x-death");
+
+        channel.basicPublish(
+                exchange != null ? exchange.toString() : destination,
+                routingKey != null ? routingKey.toString() : "#",
+                properties.builder().headers(headers).build(),
+                response.getBody());
+    }
+
+    private boolean matches(String contentType, byte[] body, String eventType, Integer fromProductId, Integer toProductId) {
+        if (eventType == null && fromProductId == null && toProductId == null) {
+            return true;
+        }
+        try {
+            JsonNode event = formats.mapperFor(contentType).readTree(body);
+            if (eventType != null && !eventType.equalsIgnoreCase(event.path("eventType").asText())) {
+                return false;
+            }
+            int key = event.path("key").asInt();
+            return (fromProductId == null || key >= fromProductId) && (toProductId == null || key <= toProductId);
+
+        } catch (IOException ex) {
+            LOG.warn("Dead letter is not a readable event, it is left in the queue: {}", ex.toString());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.aw.micro.util.messaging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.util.MimeType;
+
+import static com.aw.micro.util.messaging.EventFormats.APPLICATION_CBOR;
+import static com.aw.micro.util.messaging.EventFormats.APPLICATION_SMILE;
+
+/**
+ * Message converters for events in CBOR and Smile, next to the default JSON converter of Spring Cloud Stream.
+ * <p>
+ * Producers choose the format with the contentType of their output binding. Consumers pick the converter by the
+ * contentType header of each message, so JSON and binary events can be mixed on the same destination and consumers
+ * understand all formats regardless of what their own bindings are configured with.
+ */
+@Configuration
+public class EventFormatConfig {
+
+    @Bean
+    public EventFormats eventFormats(ObjectMapper mapper) {
+        return new EventFormats(mapper);
+    }
+
+    @Bean
+    public MessageConverter cborMessageConverter(EventFormats formats) {
+        return converter(formats, APPLICATION_CBOR);
+    }
+
+    @Bean
+    public MessageConverter smileMessageConverter(EventFormats formats) {
+        return converter(formats, APPLICATION_SMILE);
+    }
+
+    private MessageConverter converter(EventFormats formats, MimeType mimeType) {
+        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter(mimeType);
+        converter.setObjectMapper(formats.mapperFor(mimeType.toString()));
+        // Messages without a contentType header are JSON, never guess a binary format for them
+        converter.setStrictContentTypeMatch(true);
+        return converter;
+    }
+}
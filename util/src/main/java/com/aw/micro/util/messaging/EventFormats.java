@@ -0,0 +1,44 @@
+package com.aw.micro.util.messaging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.lang.Nullable;
+import org.springframework.util.MimeType;
+
+/**
+ * The formats events can be written in on the broker: JSON, CBOR and Smile. The binary formats are written with copies
+ * of the application's ObjectMapper, so all formats use the same modules and settings.
+ */
+public class EventFormats {
+
+    public static final MimeType APPLICATION_CBOR = new MimeType("application", "cbor");
+    public static final MimeType APPLICATION_SMILE = new MimeType("application", "x-jackson-smile");
+
+    private final ObjectMapper jsonMapper;
+    private final ObjectMapper cborMapper;
+    private final ObjectMapper smileMapper;
+
+    public EventFormats(ObjectMapper jsonMapper) {
+        this.jsonMapper = jsonMapper;
+        this.cborMapper = jsonMapper.copyWith(new CBORFactory());
+        this.smileMapper = jsonMapper.copyWith(new SmileFactory());
+    }
+
+    /**
+     * Returns the mapper of the content type, the JSON mapper for JSON, unknown or missing content types.
+     */
+    public ObjectMapper mapperFor(@Nullable String contentType) {
+        if (contentType == null) {
+            return jsonMapper;
+        }
+        MimeType mimeType = MimeType.valueOf(contentType);
+        if (APPLICATION_CBOR.equalsTypeAndSubtype(mimeType)) {
+            return cborMapper;
+        }
+        if (APPLICATION_SMILE.equalsTypeAndSubtype(mimeType)) {
+            return smileMapper;
+        }
+        return jsonMapper;
+    }
+}
@@ -0,0 +1,112 @@
+package com.aw.micro.util.messaging;
+
+import com.aw.micro.api.event.Event;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Builds the {@link ReactiveEventProcessor} of a core service and the {@link DeadLetterReplayEndpoint} of its dead
+ * letter queue.
+ * <p>
+ * Lanes, retries, batching, deduplication, coalescing, flow control and dead lettering are configured the same way in
+ * every service, by the app.messaging settings and the messageProcessor-in-0 binding, so a service only brings the
+ * handler and the bulk writer for its events.
+ */
+@Component
+public class EventProcessorFactory {
+
+    private static final String DEAD_LETTER_BINDING = "deadLetters-out-0";
+
+    private final StreamBridge streamBridge;
+    private final EventFormats formats;
+    private final MeterRegistry registry;
+    private final int concurrency;
+    private final int maxAttempts;
+    private final Duration backoff;
+    private final Duration maxBackoff;
+    private final boolean batchEnabled;
+    private final int batchSize;
+    private final Duration batchWait;
+    private final int dedupCapacity;
+    private final boolean coalescing;
+    private final Duration coalescingWindow;
+    private final boolean flowControl;
+    private final int minConcurrency;
+    private final Duration targetLatency;
+    private final Duration deadLetterConfirmTimeout;
+    private final String deadLetterQueue;
+    private final String destination;
+    private final int replayRate;
+    private final int replayBatchSize;
+
+    @Autowired
+    public EventProcessorFactory(StreamBridge streamBridge, EventFormats formats, MeterRegistry registry,
+                                 @Value("${app.messaging.concurrency:4}") int concurrency,
+                                 @Value("${spring.cloud.stream.bindings.messageProcessor-in-0.consumer.maxAttempts:3}") int maxAttempts,
+                                 @Value("${spring.cloud.stream.bindings.messageProcessor-in-0.consumer.backOffInitialInterval:1000}") long backOffInitialInterval,
+                                 @Value("${spring.cloud.stream.bindings.messageProcessor-in-0.consumer.backOffMaxInterval:10000}") long backOffMaxInterval,
+                                 @Value("${app.messaging.batch.enabled:false}") boolean batchEnabled,
+                                 @Value("${app.messaging.batch.size:100}") int batchSize,
+                                 @Value("${app.messaging.batch.wait:50ms}") Duration batchWait,
+                                 @Value("${app.messaging.dedup.capacity:100000}") int dedupCapacity,
+                                 @Value("${app.messaging.coalescing.enabled:false}") boolean coalescing,
+                                 @Value("${app.messaging.coalescing.window:100ms}") Duration coalescingWindow,
+                                 @Value("${app.messaging.flow-control.enabled:true}") boolean flowControl,
+                                 @Value("${app.messaging.flow-control.minConcurrency:1}") int minConcurrency,
+                                 @Value("${app.messaging.flow-control.targetLatency:200ms}") Duration targetLatency,
+                                 @Value("${app.messaging.deadLetters.confirmTimeout:0s}") Duration deadLetterConfirmTimeout,
+                                 @Value("${app.messaging.replay.queue:${spring.cloud.stream.bindings.messageProcessor-in-0.destination:}.${spring.cloud.stream.bindings.messageProcessor-in-0.group:}.dlq}") String deadLetterQueue,
+                                 @Value("${spring.cloud.stream.bindings.messageProcessor-in-0.destination:}") String destination,
+                                 @Value("${app.messaging.replay.rate:50}") int replayRate,
+                                 @Value("${app.messaging.replay.batchSize:20}") int replayBatchSize) {
+        this.streamBridge = streamBridge;
+        this.formats = formats;
+        this.registry = registry;
+        this.concurrency = concurrency;
+        this.maxAttempts = maxAttempts;
+        this.backoff = Duration.ofMillis(backOffInitialInterval);
+        this.maxBackoff = Duration.ofMillis(backOffMaxInterval);
+        this.batchEnabled = batchEnabled;
+        this.batchSize = batchSize;
+        this.batchWait = batchWait;
+        this.dedupCapacity = dedupCapacity;
+        this.coalescing = coalescing;
+        this.coalescingWindow = coalescingWindow;
+        this.flowControl = flowControl;
+        this.minConcurrency = minConcurrency;
+        this.targetLatency = targetLatency;
+        this.deadLetterConfirmTimeout = deadLetterConfirmTimeout;
+        this.deadLetterQueue = deadLetterQueue;
+        this.destination = destination;
+        this.replayRate = replayRate;
+        this.replayBatchSize = replayBatchSize;
+    }
+
+    /**
+     * @param handler     Applies a single event
+     * @param batchWriter Applies a run of events of the same type in bulk, used with app.messaging.batch.enabled
+     */
+    public <K, T> ReactiveEventProcessor<K, T> create(Function<Event<K, T>, Mono<Void>> handler,
+                                                      BatchEventHandler<K, T> batchWriter) {
+        return new ReactiveEventProcessor<>(handler, concurrency, maxAttempts, backoff, maxBackoff,
+                new DeadLetterPublisher(streamBridge, DEAD_LETTER_BINDING, deadLetterConfirmTimeout),
+                batchEnabled ? batchWriter : null, batchSize, batchWait,
+                dedupCapacity > 0 ? new RecentEventIds(dedupCapacity) : null,
+                coalescing, coalescingWindow,
+                flowControl ? new AdaptiveConcurrencyLimit(minConcurrency, concurrency, targetLatency, registry) : null,
+                registry);
+    }
+
+    public DeadLetterReplayEndpoint replayEndpoint(CachingConnectionFactory connectionFactory) {
+        return new DeadLetterReplayEndpoint(connectionFactory.getRabbitConnectionFactory(), formats, deadLetterQueue,
+                destination, replayRate, replayBatchSize);
+    }
+}
@@ -0,0 +1,131 @@
+package com.aw.micro.util.messaging;
+
+import com.aw.micro.api.event.Event;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.messaging.Message;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Consumer metrics of the {@link ReactiveEventProcessor}, tagged by partition and event type:
+ * <ul>
+ *   <li>messaging.events.processed: processing time per event and outcome (applied, dead_lettered, duplicate, coalesced), its count gives the rate</li>
+ *   <li>messaging.events.age: time from the creation of the event by the publisher until it was received, the lag of the consumer</li>
+ *   <li>messaging.events.retries and messaging.events.dead.lettered: retried attempts and events sent to the dead letter queue</li>
+ *   <li>messaging.events.in.flight: events received but not acknowledged yet</li>
+ * </ul>
+ * The partition is the suffix of the consumer queue of a partitioned Rabbit binding, or the Kafka partition.
+ */
+public class EventProcessorMetrics {
+
+    public static final String APPLIED = "applied";
+    public static final String DEAD_LETTERED = "dead_lettered";
+    public static final String DUPLICATE = "duplicate";
+    public static final String COALESCED = "coalesced";
+
+    private static final String KAFKA_PARTITION_HEADER = "kafka_receivedPartitionId";
+
+    private final MeterRegistry registry;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Map<String, Meters> metersByPartitionAndType = new ConcurrentHashMap<>();
+
+    public EventProcessorMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        Gauge.builder("messaging.events.in.flight", inFlight, AtomicInteger::get)
+                .description("Events received but not acknowledged yet")
+                .register(registry);
+    }
+
+    public void received(Message<? extends Event<?, ?>> message) {
+        inFlight.incrementAndGet();
+        long createdAt = message.getPayload().getEventCreatedAt();
+        if (createdAt > 0) {
+            long age = System.currentTimeMillis() - createdAt;
+            meters(message).age.record(Math.max(age, 0), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void acknowledged(Message<? extends Event<?, ?>> message) {
+        inFlight.decrementAndGet();
+    }
+
+    public void processed(Message<? extends Event<?, ?>> message, String outcome, long startNanos) {
+        meters(message).processed(outcome).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void retried(Message<? extends Event<?, ?>> message) {
+        meters(message).retries.increment();
+    }
+
+    public void deadLettered(Message<? extends Event<?, ?>> message) {
+        meters(message).deadLettered.increment();
+    }
+
+    private Meters meters(Message<? extends Event<?, ?>> message) {
+        String partition = partitionOf(message);
+        Event.Type eventType = message.getPayload().getEventType();
+        String type = eventType == null ? "UNKNOWN" : eventType.name();
+        return metersByPartitionAndType.computeIfAbsent(partition + "/" + type, key -> new Meters(partition, type));
+    }
+
+    private String partitionOf(Message<?> message) {
+        Object kafkaPartition = message.getHeaders().get(KAFKA_PARTITION_HEADER);
+        if (kafkaPartition != null) {
+            return kafkaPartition.toString();
+        }
+        // Partitioned Rabbit consumers read from <destination>.<group>-<partition>
+        String queue = message.getHeaders().get(AmqpHeaders.CONSUMER_QUEUE, String.class);
+        if (queue != null) {
+            int dash = queue.lastIndexOf('-');
+            if (dash >= 0 && dash < queue.length() - 1 && queue.substring(dash + 1).chars().allMatch(Character::isDigit)) {
+                return queue.substring(dash + 1);
+            }
+        }
+        return "none";
+    }
+
+    private class Meters {
+        private final String partition;
+        private final String type;
+        private final Timer age;
+        private final Counter retries;
+        private final Counter deadLettered;
+        private final Map<String, Timer> processedByOutcome = new ConcurrentHashMap<>();
+
+        private Meters(String partition, String type) {
+            this.partition = partition;
+            this.type = type;
+            this.age = Timer.builder("messaging.events.age")
+                    .tag("partition", partition)
+                    .tag("type", type)
+                    .description("Time from the creation of an event until it was received")
+                    .publishPercentileHistogram()
+                    .register(registry);
+            this.retries = Counter.builder("messaging.events.retries")
+                    .tag("partition", partition)
+                    .tag("type", type)
+                    .register(registry);
+            this.deadLettered = Counter.builder("messaging.events.dead.lettered")
+                    .tag("partition", partition)
+                    .tag("type", type)
+                    .register(registry);
+        }
+
+        private Timer processed(String outcome) {
+            return processedByOutcome.computeIfAbsent(outcome, o -> Timer.builder("messaging.events.processed")
+                    .tag("partition", partition)
+                    .tag("type", type)
+                    .tag("outcome", o)
+                    .description("Processing time of events, by outcome")
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+    }
+}
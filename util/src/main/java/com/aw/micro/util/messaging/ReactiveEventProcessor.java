@@ -0,0 +1,301 @@
+package com.aw.micro.util.messaging;
+
+import com.aw.micro.api.event.Event;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.Message;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Processes the events of a reactive input binding without blocking the binder threads.
+ * <p>
+ * Events are spread over a bounded number of lanes by their key. A lane processes its events one at a time, so events
+ * for the same key are applied in the order they were received, while up to concurrency keys are processed at once.
+ * The binder does not retry or dead-letter messages of reactive functions, so failed events are retried here with
+ * the backoff of the binding and are then handed to the {@link DeadLetterPublisher}. A failing event never
+ * terminates the stream. If the dead letter publish fails too, the message is rejected so the dead letter exchange of
+ * the queue takes it, see {@link #deadLetterFailed(Message, Throwable)}. It never counts as processed in that case.
+ * <p>
+ * In batch mode each lane collects up to batchSize events, or the events received within batchWait, and hands every
+ * run of events of the same type to the {@link BatchEventHandler} as one bulk write. Events the bulk write could not
+ * apply fall back to one by one processing, so only the events that keep failing end up in the dead letter queue.
+ * <p>
+ * Since lanes finish their events out of order, messages are acknowledged through an {@link AckWatermark}, only up to
+ * the oldest message that is still in progress. With the binding in MANUAL acknowledge mode, its prefetch bounds the
+ * number of events in progress.
+ * <p>
+ * Ids of applied events are remembered in {@link RecentEventIds}, redeliveries of them are acknowledged without being
+ * applied again. Events that end up in the dead letter queue are not remembered, so a replay applies them.
+ * <p>
+ * With coalescing, each lane buffers its events for the coalescing window and drops the events that a later DELETE of
+ * the same key makes redundant before anything is written, see {@link #coalesce(List)}.
+ * <p>
+ * Throughput, latency, event age, retries and dead lettered events are recorded by {@link EventProcessorMetrics}.
+ * <p>
+ * With an {@link AdaptiveConcurrencyLimit}, lanes wait for the storage when it gets slow instead of adding load to it.
+ */
+public class ReactiveEventProcessor<K, T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReactiveEventProcessor.class);
+
+    private final Function<Event<K, T>, Mono<Void>> handler;
+    private final int concurrency;
+    private final int maxAttempts;
+    private final Duration backoff;
+    private final Duration maxBackoff;
+    private final DeadLetterPublisher deadLetters;
+    private final BatchEventHandler<K, T> batchHandler;
+    private final RecentEventIds processedIds;
+    private final boolean coalescing;
+    private final int bufferSize;
+    private final Duration bufferWait;
+    private final AdaptiveConcurrencyLimit storageLimit;
+    private final EventProcessorMetrics metrics;
+    private final AckWatermark acks = new AckWatermark();
+
+    /**
+     * @param batchHandler Bulk writer used in batch mode, null to process the events one by one
+     */
+    public ReactiveEventProcessor(Function<Event<K, T>, Mono<Void>> handler, int concurrency, int maxAttempts,
+                                  Duration backoff, Duration maxBackoff, DeadLetterPublisher deadLetters,
+                                  BatchEventHandler<K, T> batchHandler, int batchSize, Duration batchWait,
+                                  RecentEventIds processedIds, boolean coalescing, Duration coalescingWindow,
+                                  AdaptiveConcurrencyLimit storageLimit, MeterRegistry registry) {
+        this.handler = handler;
+        this.concurrency = concurrency;
+        this.maxAttempts = maxAttempts;
+        this.backoff = backoff;
+        this.maxBackoff = maxBackoff;
+        this.deadLetters = deadLetters;
+        this.batchHandler = batchHandler;
+        this.processedIds = processedIds;
+        this.coalescing = coalescing;
+
+        // Coalescing and batching share the buffer of the lane, it is kept open for the longer of their windows. The
+        // buffer only requests what it can hold (fair backpressure), so a lane busy with a bulk write lets the
+        // messages wait in the prefetch instead of overflowing
+        this.bufferSize = batchSize;
+        this.bufferWait = batchHandler == null ? coalescingWindow
+                : coalescing && coalescingWindow.compareTo(batchWait) > 0 ? coalescingWindow : batchWait;
+        this.storageLimit = storageLimit;
+        this.metrics = new EventProcessorMetrics(registry);
+
+        LOG.info("Created an event processor with concurrency = {}, maxAttempts = {}, backoff = {}, maxBackoff = {}, batching = {}, coalescing = {}",
+                concurrency, maxAttempts, backoff, maxBackoff, batchHandler != null, coalescing);
+    }
+
+    public Mono<Void> process(Flux<Message<Event<K, T>>> messages) {
+        return messages
+                .doOnNext(message -> {
+                    acks.received(message);
+                    metrics.received(message);
+                })
+                .groupBy(message -> lane(message.getPayload()))
+                .flatMap(lane -> batchHandler == null && !coalescing
+                        ? lane.concatMap(message -> Mono.defer(() -> isNotProcessed(message) ? processMessage(message) : Mono.<Void>empty())
+                                .then(Mono.fromRunnable(() -> acknowledge(message))))
+                        : lane.bufferTimeout(bufferSize, bufferWait, true).concatMap(buffer -> Mono.defer(() -> processBuffer(buffer))
+                                .then(Mono.fromRunnable(() -> buffer.forEach(this::acknowledge)))), concurrency)
+                .then();
+    }
+
+    private Mono<Void> processBuffer(List<Message<Event<K, T>>> messages) {
+        Set<Long> inBuffer = new HashSet<>();
+        List<Message<Event<K, T>>> notProcessed = messages.stream()
+                .filter(message -> isNotProcessed(message) && isFirstInBuffer(message, inBuffer))
+                .collect(Collectors.toList());
+        List<Message<Event<K, T>>> remaining = coalescing ? coalesce(notProcessed) : notProcessed;
+
+        if (batchHandler == null) {
+            return Flux.fromIterable(remaining)
+                    .concatMap(this::processMessage)
+                    .then();
+        }
+        return Flux.fromIterable(runsOfSameType(remaining))
+                .concatMap(this::processRun)
+                .then();
+    }
+
+    /**
+     * Drops the events of a key that are followed by a DELETE of the same key in the buffer, the DELETE removes
+     * everything of the key anyway. Repeated DELETEs become the last one and CREATEs before a DELETE are never
+     * written. The DELETE itself is kept, state from before the buffer may still have to be removed.
+     */
+    private List<Message<Event<K, T>>> coalesce(List<Message<Event<K, T>>> messages) {
+        Map<K, Integer> lastDeletes = new HashMap<>();
+        for (int i = 0; i < messages.size(); i++) {
+            Event<K, T> event = messages.get(i).getPayload();
+            if (event.getEventType() == Event.Type.DELETE) {
+                lastDeletes.put(event.getKey(), i);
+            }
+        }
+        if (lastDeletes.isEmpty()) {
+            return messages;
+        }
+
+        List<Message<Event<K, T>>> remaining = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            Event<K, T> event = messages.get(i).getPayload();
+            Integer lastDelete = lastDeletes.get(event.getKey());
+            if (lastDelete == null || i >= lastDelete) {
+                remaining.add(messages.get(i));
+            } else {
+                LOG.debug("Coalescing a {} event for key {} into a later DELETE", event.getEventType(), event.getKey());
+                markProcessed(event);
+                metrics.processed(messages.get(i), EventProcessorMetrics.COALESCED, System.nanoTime());
+            }
+        }
+        return remaining;
+    }
+
+    private Mono<Void> processRun(List<Message<Event<K, T>>> run) {
+        Event.Type eventType = run.get(0).getPayload().getEventType();
+        List<Event<K, T>> events = run.stream().map(Message::getPayload).collect(Collectors.toList());
+        long start = System.nanoTime();
+
+        return limited(() -> batchHandler.apply(eventType, events))
+                .onErrorResume(ex -> {
+                    LOG.warn("Bulk write of {} {} events failed, will process them one by one: {}", events.size(), eventType, ex.toString());
+                    return Mono.just(events);
+                })
+                .flatMapMany(failed -> {
+                    if (!failed.isEmpty()) {
+                        LOG.debug("{} of {} {} events were not applied by the bulk write, will process them one by one", failed.size(), events.size(), eventType);
+                    }
+                    Set<Event<K, T>> failedEvents = Collections.newSetFromMap(new IdentityHashMap<>());
+                    failedEvents.addAll(failed);
+                    run.stream().filter(message -> !failedEvents.contains(message.getPayload())).forEach(message -> {
+                        markProcessed(message.getPayload());
+                        metrics.processed(message, EventProcessorMetrics.APPLIED, start);
+                    });
+                    return Flux.fromIterable(run).filter(message -> failedEvents.contains(message.getPayload()));
+                })
+                .concatMap(this::processMessage)
+                .then();
+    }
+
+    /**
+     * Splits the batch where the event type changes, so a CREATE is never applied before an earlier DELETE of the same key.
+     */
+    private List<List<Message<Event<K, T>>>> runsOfSameType(List<Message<Event<K, T>>> messages) {
+        List<List<Message<Event<K, T>>>> runs = new ArrayList<>();
+        List<Message<Event<K, T>>> run = null;
+        for (Message<Event<K, T>> message : messages) {
+            if (run == null || run.get(0).getPayload().getEventType() != message.getPayload().getEventType()) {
+                run = new ArrayList<>();
+                runs.add(run);
+            }
+            run.add(message);
+        }
+        return runs;
+    }
+
+    private Mono<Void> processMessage(Message<Event<K, T>> message) {
+        Event<K, T> event = message.getPayload();
+        long start = System.nanoTime();
+
+        // Every attempt, retries included, waits for the storage limit
+        Mono<Void> processing = limited(() -> handler.apply(event));
+        if (maxAttempts > 1) {
+            processing = processing.retryWhen(Retry.backoff(maxAttempts - 1, backoff)
+                    .maxBackoff(maxBackoff)
+                    .jitter(0)
+                    .doBeforeRetry(signal -> {
+                        metrics.retried(message);
+                        LOG.debug("Retry #{} of a {} event for key {} after: {}",
+                                signal.totalRetries() + 1, event.getEventType(), event.getKey(), signal.failure().toString());
+                    })
+                    .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+        }
+
+        return processing
+                .then(Mono.fromRunnable(() -> {
+                    markProcessed(event);
+                    metrics.processed(message, EventProcessorMetrics.APPLIED, start);
+                }))
+                .onErrorResume(ex -> {
+                    metrics.deadLettered(message);
+                    metrics.processed(message, EventProcessorMetrics.DEAD_LETTERED, start);
+                    return deadLetters.publish(message, ex)
+                            .onErrorResume(dlqFailure -> Mono.fromRunnable(() -> deadLetterFailed(message, dlqFailure)));
+                })
+                .then();
+    }
+
+    /**
+     * The event is neither applied nor in the dead letter queue, it must not be acknowledged.
+     */
+    private void deadLetterFailed(Message<Event<K, T>> message, Throwable failure) {
+        Event<K, T> event = message.getPayload();
+        if (acks.reject(message)) {
+            LOG.error("Dead lettering a {} event for key {} failed, it is rejected to the dead letter exchange of the queue instead: {}",
+                    event.getEventType(), event.getKey(), failure.toString());
+        } else {
+            LOG.error("Dead lettering a {} event for key {} failed and its binding already acknowledged it, the event is lost: {}",
+                    event.getEventType(), event.getKey(), failure.toString());
+        }
+    }
+
+    private <R> Mono<R> limited(Supplier<Mono<R>> storageCall) {
+        return storageLimit == null ? Mono.defer(storageCall) : storageLimit.run(storageCall);
+    }
+
+    private void acknowledge(Message<Event<K, T>> message) {
+        acks.processed(message);
+        metrics.acknowledged(message);
+    }
+
+    /**
+     * Redeliveries of already applied events are only acknowledged, they never reach the handlers.
+     * Must be called when the lane starts on the event: a redelivery has the same key and lane as the original, so by
+     * then the original is done.
+     */
+    private boolean isNotProcessed(Message<Event<K, T>> message) {
+        if (processedIds == null || !processedIds.contains(message.getPayload().getEventId())) {
+            return true;
+        }
+        LOG.debug("Skipping the already processed {} event with id {}", message.getPayload().getEventType(), message.getPayload().getEventId());
+        metrics.processed(message, EventProcessorMetrics.DUPLICATE, System.nanoTime());
+        return false;
+    }
+
+    /**
+     * A redelivery can land in the same buffer as its original, before either is applied. Only the first copy is kept,
+     * the others are skipped like any redelivery of an applied event.
+     */
+    private boolean isFirstInBuffer(Message<Event<K, T>> message, Set<Long> inBuffer) {
+        long eventId = message.getPayload().getEventId();
+        if (processedIds == null || eventId == 0 || inBuffer.add(eventId)) {
+            return true;
+        }
+        LOG.debug("Skipping a redelivery of the {} event with id {} in the same buffer", message.getPayload().getEventType(), eventId);
+        metrics.processed(message, EventProcessorMetrics.DUPLICATE, System.nanoTime());
+        return false;
+    }
+
+    private void markProcessed(Event<K, T> event) {
+        if (processedIds != null) {
+            processedIds.add(event.getEventId());
+        }
+    }
+
+    private int lane(Event<K, T> event) {
+        return event.getKey() == null ? 0 : Math.floorMod(event.getKey().hashCode(), concurrency);
+    }
+}
@@ -0,0 +1,78 @@
+package com.aw.micro.util.messaging;
+
+/**
+ * Bounded set of the ids of the most recently applied events, used to skip redeliveries.
+ * <p>
+ * Ids are kept in primitive arrays, an insertion ordered ring that decides which id is evicted once the capacity is
+ * reached and an open addressing hash table for the lookups, so a window of 100 000 ids costs a few MB and no
+ * garbage per event. 0 is not a valid id, it marks free slots.
+ */
+public class RecentEventIds {
+
+    private final long[] ring;
+    private final long[] table;
+    private final int mask;
+    private int head;
+    private int size;
+
+    public RecentEventIds(int capacity) {
+        this.ring = new long[capacity];
+        this.table = new long[Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) << 1];
+        this.mask = table.length - 1;
+    }
+
+    public synchronized boolean contains(long eventId) {
+        return eventId != 0 && table[find(eventId)] == eventId;
+    }
+
+    public synchronized void add(long eventId) {
+        if (eventId == 0 || ring.length == 0) {
+            return;
+        }
+        if (table[find(eventId)] == eventId) {
+            return;
+        }
+        if (size == ring.length) {
+            remove(ring[head]);
+            ring[head] = eventId;
+            head = (head + 1) % ring.length;
+        } else {
+            ring[(head + size) % ring.length] = eventId;
+            size++;
+        }
+        table[find(eventId)] = eventId;
+    }
+
+    /**
+     * Returns the slot of the id, or the free slot where it would be inserted.
+     */
+    private int find(long eventId) {
+        int slot = hash(eventId);
+        while (table[slot] != 0 && table[slot] != eventId) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void remove(long eventId) {
+        int slot = find(eventId);
+        if (table[slot] != eventId) {
+            return;
+        }
+        // Backward shift deletion keeps the probe sequences of the following ids intact without tombstones
+        int free = slot;
+        for (int next = (free + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+            int home = hash(table[next]);
+            if (((next - home) & mask) >= ((next - free) & mask)) {
+                table[free] = table[next];
+                free = next;
+            }
+        }
+        table[free] = 0;
+    }
+
+    private int hash(long eventId) {
+        long h = eventId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
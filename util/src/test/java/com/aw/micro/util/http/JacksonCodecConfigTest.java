@@ -0,0 +1,79 @@
+package com.aw.micro.util.http;
+
+import com.aw.micro.api.core.product.Product;
+import com.aw.micro.api.core.review.Review;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.server.HandlerStrategies;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+import static org.springframework.web.reactive.function.server.ServerResponse.ok;
+
+class JacksonCodecConfigTest {
+
+	private final JacksonCodecConfig config = new JacksonCodecConfig();
+	private final ObjectMapper mapper = new ObjectMapper().registerModule(config.blackbirdModule());
+	private final PrecompiledCodecs codecs = config.precompiledCodecs(mapper);
+	private final CodecCustomizer customizer = config.precompiledCodecCustomizer(mapper, codecs);
+	private final WebTestClient client = WebTestClient
+			.bindToRouterFunction(
+					route(GET("/review"), request -> ok().body(Flux.just(review(1), review(2)), Review.class))
+							.andRoute(GET("/product"), request -> ok().body(Mono.just(new Product(1, "name", 2, null)), Product.class))
+							.andRoute(GET("/other"), request -> ok().bodyValue(Map.of("name", "value"))))
+			.handlerStrategies(HandlerStrategies.builder().codecs(customizer::customize).build())
+			.configureClient()
+			.codecs(customizer::customize)
+			.build();
+
+	@Test
+	void precompilesTheTypesOfTheHotPaths() {
+		assertThat(codecs.readerFor(Review.class)).isNotNull();
+		assertThat(codecs.writerFor(Review.class)).isNotNull();
+		assertThat(codecs.readerFor(String.class)).isNull();
+		assertThat(codecs.writerFor(String.class)).isNull();
+	}
+
+	@Test
+	void roundTripsAFluxOfPrecompiledType() {
+		client.get().uri("/review").accept(MediaType.APPLICATION_JSON)
+				.exchange()
+				.expectStatus().isOk()
+				.expectBodyList(Review.class)
+				.value(reviews -> assertThat(reviews)
+						.extracting(Review::getReviewId, Review::getSubject)
+						.containsExactly(tuple(1, "Subject 1"), tuple(2, "Subject 2")));
+	}
+
+	@Test
+	void roundTripsASingleValueOfPrecompiledType() {
+		client.get().uri("/product").accept(MediaType.APPLICATION_JSON)
+				.exchange()
+				.expectStatus().isOk()
+				.expectBody(Product.class)
+				.value(product -> assertThat(product.getName()).isEqualTo("name"));
+	}
+
+	@Test
+	void fallsBackToTheMapperForOtherTypes() {
+		client.get().uri("/other").accept(MediaType.APPLICATION_JSON)
+				.exchange()
+				.expectStatus().isOk()
+				.expectBody(new ParameterizedTypeReference<Map<String, String>>() {})
+				.isEqualTo(Map.of("name", "value"));
+	}
+
+	private static Review review(int reviewId) {
+		return new Review(1, reviewId, "Author " + reviewId, "Subject " + reviewId, "Content " + reviewId, null);
+	}
+}
@@ -0,0 +1,54 @@
+package com.aw.micro.util.http;
+
+import com.aw.micro.api.core.review.Review;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.server.HandlerStrategies;
+import reactor.core.publisher.Flux;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+import static org.springframework.web.reactive.function.server.ServerResponse.ok;
+
+class SmileCodecConfigTest {
+
+	private static final MediaType APPLICATION_SMILE = new MediaType("application", "x-jackson-smile");
+
+	private final CodecCustomizer customizer = new SmileCodecConfig().smileCodecCustomizer(new ObjectMapper());
+	private final WebTestClient client = WebTestClient
+			.bindToRouterFunction(route(GET("/review"), request -> ok().body(Flux.just(review(1), review(2)), Review.class)))
+			.handlerStrategies(HandlerStrategies.builder().codecs(customizer::customize).build())
+			.configureClient()
+			.codecs(customizer::customize)
+			.build();
+
+	@Test
+	void answersInSmileWhenAskedFor() {
+		client.get().uri("/review").accept(APPLICATION_SMILE)
+				.exchange()
+				.expectStatus().isOk()
+				.expectHeader().contentTypeCompatibleWith(APPLICATION_SMILE)
+				.expectBodyList(Review.class)
+				.value(reviews -> assertThat(reviews)
+						.extracting(Review::getReviewId, Review::getSubject)
+						.containsExactly(tuple(1, "Subject 1"), tuple(2, "Subject 2")));
+	}
+
+	@Test
+	void answersInJsonByDefault() {
+		client.get().uri("/review").accept(MediaType.APPLICATION_JSON)
+				.exchange()
+				.expectStatus().isOk()
+				.expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_JSON)
+				.expectBodyList(Review.class).hasSize(2);
+	}
+
+	private static Review review(int reviewId) {
+		return new Review(1, reviewId, "Author " + reviewId, "Subject " + reviewId, "Content " + reviewId, null);
+	}
+}
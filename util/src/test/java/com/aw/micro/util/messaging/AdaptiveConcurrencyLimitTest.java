@@ -0,0 +1,95 @@
+package com.aw.micro.util.messaging;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveConcurrencyLimitTest {
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+	private final AtomicInteger started = new AtomicInteger();
+
+	@Test
+	void letsACallOverTheLimitWaitForAPermit() {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 1, Duration.ofSeconds(1), registry);
+		Sinks.One<String> first = Sinks.one();
+
+		Disposable running = limit.run(() -> call(first)).subscribe();
+		StepVerifier.create(limit.run(() -> call(Mono.just("second"))))
+				.then(() -> {
+					assertThat(started).hasValue(1);
+					assertThat(waiting()).isEqualTo(1);
+					first.tryEmitValue("first");
+				})
+				.expectNext("second")
+				.verifyComplete();
+
+		assertThat(started).hasValue(2);
+		running.dispose();
+	}
+
+	@Test
+	void leavesTheQueueWhenAWaitingCallIsCancelled() {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 1, Duration.ofSeconds(1), registry);
+		Sinks.One<String> first = Sinks.one();
+
+		Disposable running = limit.run(() -> call(first)).subscribe();
+		limit.run(() -> call(Mono.just("cancelled"))).subscribe().dispose();
+		assertThat(waiting()).isZero();
+
+		first.tryEmitValue("first");
+
+		StepVerifier.create(limit.run(() -> call(Mono.just("third"))))
+				.expectNext("third")
+				.verifyComplete();
+		assertThat(started).hasValue(2);
+		running.dispose();
+	}
+
+	@Test
+	void givesBackThePermitOfACancelledCallWithoutRaisingTheLimit() {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 4, Duration.ofSeconds(1), registry);
+
+		// A failing call halves the limit to 2
+		StepVerifier.create(limit.run(() -> Mono.error(new IllegalStateException("Storage is down"))))
+				.expectError(IllegalStateException.class)
+				.verify();
+		assertThat(limitValue()).isEqualTo(2.0);
+
+		limit.run(() -> call(Sinks.<String>one())).subscribe().dispose();
+		assertThat(limitValue()).isEqualTo(2.0);
+
+		Disposable first = limit.run(() -> call(Sinks.<String>one())).subscribe();
+		Disposable second = limit.run(() -> call(Sinks.<String>one())).subscribe();
+		assertThat(started).hasValue(3);
+		assertThat(waiting()).isZero();
+		first.dispose();
+		second.dispose();
+	}
+
+	private Mono<String> call(Sinks.One<String> result) {
+		return call(result.asMono());
+	}
+
+	private Mono<String> call(Mono<String> result) {
+		started.incrementAndGet();
+		return result;
+	}
+
+	private double limitValue() {
+		return registry.get("messaging.flow.limit").gauge().value();
+	}
+
+	private double waiting() {
+		return registry.get("messaging.flow.waiting").gauge().value();
+	}
+}
@@ -0,0 +1,71 @@
+package com.aw.micro.util.messaging;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.ReturnedMessage;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.function.Consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DeadLetterPublisherTest {
+
+	private final StreamBridge streamBridge = mock(StreamBridge.class);
+	private final DeadLetterPublisher publisher = new DeadLetterPublisher(streamBridge, "deadLetters-out-0", Duration.ofSeconds(1));
+	private final Message<String> message = MessageBuilder.withPayload("event").build();
+
+	@Test
+	void completesOnceTheDeadLetterIsConfirmed() {
+		brokerAnswers(correlation -> correlation.getFuture().complete(new CorrelationData.Confirm(true, null)));
+
+		StepVerifier.create(publisher.publish(message, new IllegalStateException("Invalid event")))
+				.verifyComplete();
+	}
+
+	@Test
+	void failsIfTheDeadLetterIsUnroutable() {
+		brokerAnswers(correlation -> {
+			correlation.setReturned(new ReturnedMessage(new org.springframework.amqp.core.Message(new byte[0]), 312, "NO_ROUTE", "DLX", "products.productsGroup-0"));
+			correlation.getFuture().complete(new CorrelationData.Confirm(true, null));
+		});
+
+		StepVerifier.create(publisher.publish(message, new IllegalStateException("Invalid event")))
+				.expectError(IllegalStateException.class)
+				.verify(Duration.ofSeconds(5));
+	}
+
+	@Test
+	void failsIfTheDeadLetterIsNacked() {
+		brokerAnswers(correlation -> correlation.getFuture().complete(new CorrelationData.Confirm(false, "Queue is full")));
+
+		StepVerifier.create(publisher.publish(message, new IllegalStateException("Invalid event")))
+				.expectError(IllegalStateException.class)
+				.verify(Duration.ofSeconds(5));
+	}
+
+	@Test
+	void failsIfNoConfirmArrives() {
+		brokerAnswers(correlation -> { });
+
+		StepVerifier.create(publisher.publish(message, new IllegalStateException("Invalid event")))
+				.expectError()
+				.verify(Duration.ofSeconds(5));
+	}
+
+	private void brokerAnswers(Consumer<CorrelationData> broker) {
+		when(streamBridge.send(eq("deadLetters-out-0"), any())).thenAnswer(invocation -> {
+			Message<?> deadLetter = invocation.getArgument(1);
+			broker.accept((CorrelationData) deadLetter.getHeaders().get(AmqpHeaders.PUBLISH_CONFIRM_CORRELATION));
+			return true;
+		});
+	}
+}
@@ -0,0 +1,134 @@
+package com.aw.micro.util.messaging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.GetResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DeadLetterReplayEndpointTest {
+
+	private static final Duration TIMEOUT = Duration.ofSeconds(10);
+	private static final String DLQ = "products.productsGroup.dlq";
+
+	private final ConnectionFactory connectionFactory = mock(ConnectionFactory.class);
+	private final Connection connection = mock(Connection.class);
+	private final Channel channel = mock(Channel.class);
+	private final DeadLetterReplayEndpoint endpoint = new DeadLetterReplayEndpoint(connectionFactory,
+			new EventFormats(new ObjectMapper()), DLQ, "products", 1000, 2);
+
+	@BeforeEach
+	void setUp() throws Exception {
+		when(connectionFactory.newConnection("dlq-replay")).thenReturn(connection);
+		when(connection.createChannel()).thenReturn(channel);
+	}
+
+	@Test
+	void replaysToTheOriginalQueueOnceConfirmed() throws Exception {
+		deadLetters(deadLetter(1, "CREATE", 1), deadLetter(2, "CREATE", 2));
+
+		replayAndWait(null);
+
+		ArgumentCaptor<AMQP.BasicProperties> properties = ArgumentCaptor.forClass(AMQP.BasicProperties.class);
+		InOrder inOrder = inOrder(channel);
+		inOrder.verify(channel).confirmSelect();
+		inOrder.verify(channel, times(2)).basicPublish(eq("products"), eq("products.productsGroup"), properties.capture(), any());
+		inOrder.verify(channel).waitForConfirmsOrDie(anyLong());
+		inOrder.verify(channel).basicAck(2, true);
+
+		assertThat(properties.getValue().getHeaders())
+				.containsEntry("attempt", 1)
+				.doesNotContainKeys(DeadLetterPublisher.ORIGINAL_EXCHANGE_HEADER, DeadLetterPublisher.ORIGINAL_ROUTING_KEY_HEADER,
+						DeadLetterPublisher.EXCEPTION_MESSAGE_HEADER);
+		assertThat(endpoint.progress())
+				.containsEntry("state", "DONE")
+				.containsEntry("replayed", 2L)
+				.containsEntry("skipped", 0L);
+	}
+
+	@Test
+	void leavesTheEventsOutsideTheFilterInTheQueue() throws Exception {
+		deadLetters(deadLetter(1, "CREATE", 1), deadLetter(2, "DELETE", 2));
+
+		replayAndWait("DELETE");
+
+		verify(channel, times(1)).basicPublish(anyString(), anyString(), any(), any());
+		verify(channel).basicAck(2, false);
+		verify(channel, never()).basicAck(anyLong(), eq(true));
+		verify(channel).basicNack(1, false, true);
+		assertThat(endpoint.progress())
+				.containsEntry("replayed", 1L)
+				.containsEntry("skipped", 1L);
+	}
+
+	@Test
+	void keepsTheBatchInTheQueueIfItIsNotConfirmed() throws Exception {
+		deadLetters(deadLetter(1, "CREATE", 1), deadLetter(2, "CREATE", 2));
+		doThrow(new IOException("Nacked")).when(channel).waitForConfirmsOrDie(anyLong());
+
+		replayAndWait(null);
+
+		verify(channel, never()).basicAck(anyLong(), anyBoolean());
+		assertThat(endpoint.progress())
+				.containsEntry("state", "FAILED: Nacked")
+				.containsEntry("replayed", 0L);
+	}
+
+	private void replayAndWait(String eventType) throws InterruptedException {
+		endpoint.replay(null, null, eventType, null, null);
+		waitUntil(() -> !endpoint.progress().get("state").equals("RUNNING"));
+	}
+
+	private void deadLetters(GetResponse first, GetResponse... others) throws IOException {
+		AMQP.Queue.DeclareOk declareOk = mock(AMQP.Queue.DeclareOk.class);
+		when(declareOk.getMessageCount()).thenReturn(1 + others.length);
+		when(channel.queueDeclarePassive(DLQ)).thenReturn(declareOk);
+		when(channel.basicGet(DLQ, false)).thenReturn(first, others);
+	}
+
+	private static GetResponse deadLetter(long deliveryTag, String eventType, int key) {
+		AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+				.contentType("application/json")
+				.headers(Map.of(
+						"attempt", 1,
+						DeadLetterPublisher.ORIGINAL_EXCHANGE_HEADER, "products",
+						DeadLetterPublisher.ORIGINAL_ROUTING_KEY_HEADER, "products.productsGroup",
+						DeadLetterPublisher.EXCEPTION_MESSAGE_HEADER, "Invalid event"))
+				.build();
+		byte[] body = ("{\"eventType\":\"" + eventType + "\",\"key\":" + key + "}").getBytes(StandardCharsets.UTF_8);
+		return new GetResponse(new Envelope(deliveryTag, false, "DLX", DLQ), properties, body, 0);
+	}
+
+	private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TIMEOUT.toNanos();
+		while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package com.aw.micro.util.messaging;
+
+import com.aw.micro.api.core.review.Review;
+import com.aw.micro.api.event.Event;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.util.List;
+
+import static com.aw.micro.api.event.Event.Type.CREATE;
+import static com.aw.micro.api.event.Event.Type.CREATE_ALL;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class EventFormatsTest {
+
+	private static final TypeReference<Event<Integer, Review>> EVENT = new TypeReference<>() {};
+
+	private final ObjectMapper jsonMapper = new ObjectMapper();
+	private final EventFormats formats = new EventFormats(jsonMapper);
+
+	@ParameterizedTest
+	@ValueSource(strings = {"application/json", "application/cbor", "application/x-jackson-smile"})
+	void roundTripsAnEvent(String contentType) throws IOException {
+		Event<Integer, Review> event = new Event<>(CREATE, 1, review(1)).withEventId(42);
+
+		Event<Integer, Review> read = roundTrip(contentType, event);
+
+		assertThat(read.getEventType()).isEqualTo(CREATE);
+		assertThat(read.getKey()).isEqualTo(1);
+		assertThat(read.getEventId()).isEqualTo(42);
+		assertThat(read.getEventCreatedAt()).isEqualTo(event.getEventCreatedAt());
+		assertThat(read.getData().getSubject()).isEqualTo("Subject 1");
+		assertThat(read.getItems()).isNull();
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {"application/json", "application/cbor", "application/x-jackson-smile"})
+	void roundTripsACreateAllEvent(String contentType) throws IOException {
+		Event<Integer, Review> event = Event.createAll(1, List.of(review(1), review(2)));
+
+		Event<Integer, Review> read = roundTrip(contentType, event);
+
+		assertThat(read.getEventType()).isEqualTo(CREATE_ALL);
+		assertThat(read.getData()).isNull();
+		assertThat(read.getItems())
+				.extracting(Review::getReviewId, Review::getSubject)
+				.containsExactly(tuple(1, "Subject 1"), tuple(2, "Subject 2"));
+	}
+
+	@Test
+	void writesTheBinaryFormatsInFewerBytes() throws IOException {
+		Event<Integer, Review> event = Event.createAll(1, List.of(review(1), review(2), review(3)));
+		int json = formats.mapperFor("application/json").writeValueAsBytes(event).length;
+
+		assertThat(formats.mapperFor("application/cbor").writeValueAsBytes(event).length).isLessThan(json);
+		assertThat(formats.mapperFor("application/x-jackson-smile").writeValueAsBytes(event).length).isLessThan(json);
+	}
+
+	@Test
+	void usesJsonForMissingAndUnknownContentTypes() {
+		assertThat(formats.mapperFor(null)).isSameAs(jsonMapper);
+		assertThat(formats.mapperFor("text/plain")).isSameAs(jsonMapper);
+		assertThat(formats.mapperFor("application/cbor;charset=UTF-8")).isNotSameAs(jsonMapper);
+	}
+
+	@Test
+	void readsTheCreationTimeOfOlderEvents() throws IOException {
+		String event = "{\"eventType\":\"CREATE\",\"key\":1,\"eventCreatedAt\":\"2024-01-01T00:00:00Z\"}";
+
+		Event<Integer, Review> read = jsonMapper.readValue(event, EVENT);
+
+		assertThat(read.getEventCreatedAt()).isEqualTo(1704067200000L);
+	}
+
+	private Event<Integer, Review> roundTrip(String contentType, Event<Integer, Review> event) throws IOException {
+		ObjectMapper mapper = formats.mapperFor(contentType);
+		return mapper.readValue(mapper.writeValueAsBytes(event), EVENT);
+	}
+
+	private static Review review(int reviewId) {
+		return new Review(1, reviewId, "Author " + reviewId, "Subject " + reviewId, "Content " + reviewId, null);
+	}
+}
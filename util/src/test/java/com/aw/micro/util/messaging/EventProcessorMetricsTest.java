@@ -0,0 +1,74 @@
+package com.aw.micro.util.messaging;
+
+import com.aw.micro.api.event.Event;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import static com.aw.micro.api.event.Event.Type.CREATE;
+import static com.aw.micro.api.event.Event.Type.DELETE;
+import static com.aw.micro.util.messaging.EventProcessorMetrics.APPLIED;
+import static com.aw.micro.util.messaging.EventProcessorMetrics.DUPLICATE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventProcessorMetricsTest {
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+	private final EventProcessorMetrics metrics = new EventProcessorMetrics(registry);
+
+	@Test
+	void tagsTheMetersWithThePartitionOfAPartitionedQueue() {
+		Message<Event<Integer, String>> message = message(CREATE, "products.productsGroup-2");
+
+		metrics.received(message);
+		metrics.processed(message, APPLIED, System.nanoTime());
+
+		assertThat(registry.get("messaging.events.age").tag("partition", "2").tag("type", "CREATE").timer().count()).isEqualTo(1);
+		assertThat(registry.get("messaging.events.processed").tag("partition", "2").tag("outcome", APPLIED).timer().count()).isEqualTo(1);
+	}
+
+	@Test
+	void usesNoPartitionForAQueueWithoutPartitions() {
+		Message<Event<Integer, String>> message = message(DELETE, "products.productsGroup");
+
+		metrics.processed(message, DUPLICATE, System.nanoTime());
+		metrics.retried(message);
+		metrics.deadLettered(message);
+
+		assertThat(registry.get("messaging.events.processed").tag("partition", "none").tag("type", "DELETE").tag("outcome", DUPLICATE).timer().count()).isEqualTo(1);
+		assertThat(registry.get("messaging.events.retries").tag("partition", "none").counter().count()).isEqualTo(1);
+		assertThat(registry.get("messaging.events.dead.lettered").tag("partition", "none").counter().count()).isEqualTo(1);
+	}
+
+	@Test
+	void usesTheKafkaPartition() {
+		Message<Event<Integer, String>> message = MessageBuilder.withPayload(new Event<>(CREATE, 1, "data"))
+				.setHeader("kafka_receivedPartitionId", 3)
+				.build();
+
+		metrics.received(message);
+
+		assertThat(registry.get("messaging.events.age").tag("partition", "3").timer().count()).isEqualTo(1);
+	}
+
+	@Test
+	void countsTheEventsInFlight() {
+		Message<Event<Integer, String>> first = message(CREATE, "products.productsGroup-0");
+		Message<Event<Integer, String>> second = message(CREATE, "products.productsGroup-0");
+
+		metrics.received(first);
+		metrics.received(second);
+		metrics.acknowledged(first);
+
+		assertThat(registry.get("messaging.events.in.flight").gauge().value()).isEqualTo(1.0);
+	}
+
+	private static Message<Event<Integer, String>> message(Event.Type type, String queue) {
+		return MessageBuilder.withPayload(new Event<>(type, 1, "data"))
+				.setHeader(AmqpHeaders.CONSUMER_QUEUE, queue)
+				.build();
+	}
+}
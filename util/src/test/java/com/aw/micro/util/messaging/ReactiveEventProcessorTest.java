@@ -0,0 +1,159 @@
+package com.aw.micro.util.messaging;
+
+import com.aw.micro.api.event.Event;
+import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import static com.aw.micro.api.event.Event.Type.CREATE;
+import static com.aw.micro.api.event.Event.Type.DELETE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReactiveEventProcessorTest {
+
+	private final Channel channel = mock(Channel.class);
+	private final StreamBridge streamBridge = mock(StreamBridge.class);
+
+	// Events for key 1 fail, all others are applied
+	private final Function<Event<Integer, String>, Mono<Void>> handler = event -> event.getKey() == 1
+			? Mono.error(new IllegalStateException("Invalid event"))
+			: Mono.empty();
+
+	@BeforeEach
+	void setUp() {
+		when(channel.isOpen()).thenReturn(true);
+	}
+
+	@Test
+	void acknowledgesADeadLetteredEvent() throws IOException {
+		when(streamBridge.send(eq("deadLetters-out-0"), any())).thenReturn(true);
+
+		StepVerifier.create(processor().process(Flux.just(message(1, 1), message(2, 2))))
+				.verifyComplete();
+
+		verify(streamBridge).send(eq("deadLetters-out-0"), any());
+		verify(channel).basicAck(2, true);
+	}
+
+	@Test
+	void rejectsAnEventThatCouldNotBeDeadLettered() throws IOException {
+		when(streamBridge.send(eq("deadLetters-out-0"), any())).thenReturn(false);
+
+		StepVerifier.create(processor().process(Flux.just(message(1, 1), message(2, 2))))
+				.verifyComplete();
+
+		verify(channel).basicNack(1, false, false);
+		verify(channel, never()).basicAck(eq(1L), anyBoolean());
+		verify(channel).basicAck(2, true);
+	}
+
+	@Test
+	void holdsTheWatermarkIfTheRejectFails() throws IOException {
+		when(streamBridge.send(eq("deadLetters-out-0"), any())).thenReturn(false);
+		doThrow(new IOException("Channel broken")).when(channel).basicNack(anyLong(), anyBoolean(), anyBoolean());
+
+		StepVerifier.create(processor().process(Flux.just(message(1, 1), message(2, 2))))
+				.verifyComplete();
+
+		verify(channel, never()).basicAck(anyLong(), anyBoolean());
+	}
+
+	@Test
+	void skipsARedeliveryOfAnAppliedEvent() throws IOException {
+		List<Event<Integer, String>> applied = new CopyOnWriteArrayList<>();
+		Event<Integer, String> event = new Event<Integer, String>(CREATE, 2, "data 2").withEventId(42);
+		ReactiveEventProcessor<Integer, String> processor = new ReactiveEventProcessor<>(recording(applied), 2, 1,
+				Duration.ofMillis(10), Duration.ofMillis(10), new DeadLetterPublisher(streamBridge, "deadLetters-out-0"),
+				null, 10, Duration.ofMillis(10), new RecentEventIds(100), false, Duration.ZERO, null, new SimpleMeterRegistry());
+
+		StepVerifier.create(processor.process(Flux.just(message(event, 1), message(event, 2))))
+				.verifyComplete();
+
+		assertThat(applied).containsExactly(event);
+		verify(channel).basicAck(2, true);
+	}
+
+	@Test
+	void skipsARedeliveryInTheSameBuffer() throws IOException {
+		List<Event<Integer, String>> applied = new CopyOnWriteArrayList<>();
+		Event<Integer, String> event = new Event<Integer, String>(CREATE, 2, "data 2").withEventId(42);
+		BatchEventHandler<Integer, String> batchHandler = (eventType, events) -> {
+			applied.addAll(events);
+			return Mono.just(List.of());
+		};
+		ReactiveEventProcessor<Integer, String> processor = new ReactiveEventProcessor<>(recording(applied), 2, 1,
+				Duration.ofMillis(10), Duration.ofMillis(10), new DeadLetterPublisher(streamBridge, "deadLetters-out-0"),
+				batchHandler, 10, Duration.ofMillis(50), new RecentEventIds(100), false, Duration.ZERO, null, new SimpleMeterRegistry());
+
+		StepVerifier.create(processor.process(Flux.just(message(event, 1), message(event, 2))))
+				.verifyComplete();
+
+		assertThat(applied).containsExactly(event);
+		verify(channel).basicAck(2, true);
+	}
+
+	@Test
+	void coalescesEventsIntoALaterDelete() throws IOException {
+		List<Event<Integer, String>> applied = new CopyOnWriteArrayList<>();
+		ReactiveEventProcessor<Integer, String> processor = new ReactiveEventProcessor<>(recording(applied), 2, 1,
+				Duration.ofMillis(10), Duration.ofMillis(10), new DeadLetterPublisher(streamBridge, "deadLetters-out-0"),
+				null, 10, Duration.ofMillis(10), null, true, Duration.ofMillis(50), null, new SimpleMeterRegistry());
+
+		StepVerifier.create(processor.process(Flux.just(
+						message(new Event<>(CREATE, 2, "first"), 1),
+						message(new Event<>(CREATE, 4, "other"), 2),
+						message(new Event<>(CREATE, 2, "second"), 3),
+						message(new Event<Integer, String>(DELETE, 2, null), 4))))
+				.verifyComplete();
+
+		assertThat(applied)
+				.extracting(Event::getEventType, Event::getKey)
+				.containsExactlyInAnyOrder(tuple(CREATE, 4), tuple(DELETE, 2));
+		verify(channel).basicAck(4, true);
+	}
+
+	private static Function<Event<Integer, String>, Mono<Void>> recording(List<Event<Integer, String>> applied) {
+		return event -> Mono.fromRunnable(() -> applied.add(event));
+	}
+
+	private ReactiveEventProcessor<Integer, String> processor() {
+		return new ReactiveEventProcessor<>(handler, 2, 1, Duration.ofMillis(10), Duration.ofMillis(10),
+				new DeadLetterPublisher(streamBridge, "deadLetters-out-0"), null, 10, Duration.ofMillis(10),
+				null, false, Duration.ZERO, null, new SimpleMeterRegistry());
+	}
+
+	private Message<Event<Integer, String>> message(int key, long deliveryTag) {
+		return message(new Event<>(CREATE, key, "data " + key), deliveryTag);
+	}
+
+	private Message<Event<Integer, String>> message(Event<Integer, String> event, long deliveryTag) {
+		return MessageBuilder.withPayload(event)
+				.setHeader(AmqpHeaders.CHANNEL, channel)
+				.setHeader(AmqpHeaders.DELIVERY_TAG, deliveryTag)
+				.build();
+	}
+}